@@ -20,6 +20,13 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 /**
@@ -148,6 +155,24 @@ public final class SDK {
 		}
 		return originFileName;
 	}
+
+	/**
+	 * 用新文件替换目标文件
+	 * <br>
+	 * 优先原子改名，中途退出不会留下不完整的目标文件；只有文件系统不支持原子改名时才退回普通改名
+	 * 
+	 * @param from 新文件
+	 * @param to 目标文件，不存在时直接改名
+	 * @throws IOException 改名失败
+	 */
+	public static void replaceFile(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
 	/**
 	 * 解压zlib压缩过的数据
 	 */
@@ -165,6 +190,70 @@ public final class SDK {
 			}
 		}
 	}
+
+	/** 线程内复用的解压器 */
+	private static final class InflaterHolder {
+		final Inflater inflater = new Inflater();
+		/** 用于探测解压结果是否超出预期长度 */
+		final byte[] probe = new byte[1];
+	}
+
+	private static final ThreadLocal<InflaterHolder> inflaters = ThreadLocal.withInitial(InflaterHolder::new);
+
+	/**
+	 * 解压zlib压缩过的数据到预先分配的数组
+	 * <br>
+	 * 使用线程内复用的{@link Inflater}，不产生额外的内存分配
+	 * 
+	 * @param src 压缩数据
+	 * @param off 压缩数据起始位置
+	 * @param len 压缩数据长度
+	 * @param dst 解压目标数组
+	 * @param dstOff 解压目标起始位置
+	 * @param expectedLen 解压后的数据长度
+	 * @throws IOException 数据损坏或解压后长度与expectedLen不一致
+	 */
+	public static void inflate(byte[] src, int off, int len, byte[] dst, int dstOff, int expectedLen) throws IOException {
+		var holder = inflaters.get();
+		holder.inflater.reset();
+		holder.inflater.setInput(src, off, len);
+		inflate(holder, dst, dstOff, expectedLen);
+	}
+
+	/**
+	 * 解压zlib压缩过的数据到预先分配的数组
+	 * <br>
+	 * 压缩数据为缓冲区position到limit之间的部分，可以是内存映射区域；解压后position移动到已读取的位置
+	 * 
+	 * @param src 压缩数据
+	 * @param dst 解压目标数组
+	 * @param dstOff 解压目标起始位置
+	 * @param expectedLen 解压后的数据长度
+	 * @throws IOException 数据损坏或解压后长度与expectedLen不一致
+	 */
+	public static void inflate(ByteBuffer src, byte[] dst, int dstOff, int expectedLen) throws IOException {
+		var holder = inflaters.get();
+		holder.inflater.reset();
+		holder.inflater.setInput(src);
+		inflate(holder, dst, dstOff, expectedLen);
+	}
+
+	private static void inflate(InflaterHolder holder, byte[] dst, int dstOff, int expectedLen) throws IOException {
+		var inflater = holder.inflater;
+		try {
+			var total = 0;
+			while (total < expectedLen) {
+				var n = inflater.inflate(dst, dstOff + total, expectedLen - total);
+				if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("inflated " + total + " bytes, expected " + expectedLen);
+				total += n;
+			}
+			if (!inflater.finished() && inflater.inflate(holder.probe) > 0)
+				throw new IOException("inflated more than " + expectedLen + " bytes");
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+	}
 	
     /** 调色板，二维字节数组<br>每个颜色为ARGB格式 */
 	public static int[] palletesInt = { -16777216, -8388608, -16744448, -8355840, -16777088, -8388480, -16744320, -4144960, -11173737, -6440504, -8686733, -13817559, -10857902, -10266022, -12437191, -14870504, -15200240, -14084072, -15726584, -886415, -2005153, -42406, -52943, -2729390, -7073792, -7067368, -13039616, -9236480, -4909056, -4365486, -12445680, -21863, -10874880, -9225943, -5944783, -7046285, -4369871, -11394800, -8703720, -13821936, -7583183, -7067392, -4378368, -3771566, -9752296, -3773630, -3257856, -5938375, -10866408, -14020608, -15398912, -12969984, -16252928, -14090240, -11927552, -6488064, -2359296, -2228224, -327680, -6524078, -7050422, -9221591, -11390696, -7583208, -7846895, -11919104, -14608368, -2714534, -3773663, -1086720, -35072, -5925756, -12439263, -15200248, -14084088, -14610432, -13031144, -7576775, -12441328, -9747944, -8697320, -7058944, -7568261, -9739430, -11910599, -14081768, -12175063, -4872812, -8688806, -3231340, -5927821, -7572646, -4877197, -2710157, -1071798, -1063284, -8690878, -9742791, -4352934, -10274560, -2701651, -11386327, -7052520, -1059155, -5927837, -10266038, -4348549, -10862056, -4355023, -13291223, -7043997, -8688822, -5927846, -10859991, -6522055, -12439280, -1069791, -15200256, -14081792, -6526208, -7044006, -11386344, -9741783, -8690911, -6522079, -2185984, -10857927, -13555440, -3228293, -10266055, -7044022, -3758807, -15688680, -12415926, -13530046, -15690711, -16246768, -16246760, -16242416, -15187415, -5917267, -9735309, -15193815, -15187382, -13548982, -10238242, -12263937, -7547153, -9213127, -532935, -528500, -530688, -9737382, -10842971, -12995089, -11887410, -13531979, -13544853, -2171178, -4342347, -7566204, -526370, -16775144, -16246727, -16248791, -16246784, -16242432, -16756059, -16745506, -15718070, -15713941, -15707508, -14591323, -15716006, -15711612, -13544828, -15195855, -11904389, -11375707, -14075549, -15709474, -14079711, -11908551, -14079720, -11908567, -8684734, -6513590, -10855895, -12434924, -13027072, -10921728, -3525332, -9735391, -14077696, -13551344, -13551336, -12432896, -11377896, -10849495, -13546984, -15195904, -15191808, -15189744, -10255286, -9716406, -10242742, -10240694, -10838966, -11891655, -10238390, -10234294, -11369398, -13536471, -10238374, -11354806, -15663360, -15193832, -11892662, -11868342, -16754176, -16742400, -16739328, -16720384, -16716288, -16712960, -11904364, -10259531, -8680234, -9733162, -8943361, -3750194, -7039844, -6515514, -13553351, -14083964, -15204220, -11910574, -11386245, -10265997, -3230217, -7570532, -8969524, -2249985, -1002454, -2162529, -1894477, -1040, -6250332, -8355712, -65536, -16711936, -256, -16776961, -65281, -16711681, -1 };
@@ -0,0 +1,113 @@
+package com.github.jootnet.m2.core.image;
+
+/**
+ * 纹理透明度位图
+ * <br>
+ * 每像素1位，不透明为1；每行按long对齐，用于鼠标拾取时判断某个像素是否属于人物或物体
+ * <br>
+ * 理论上占用内存为RGBA像素的1/32；窄纹理每行补齐到64位，实际比例更大，示例资源约为1/17
+ * <br>
+ * 纹理像素被淘汰或上传到显存后仍可进行精确的点击判断
+ */
+public final class AlphaMask {
+	/** 像素宽度 */
+	public final int width;
+	/** 像素高度 */
+	public final int height;
+	/** 绘制横向像素偏移 */
+	public final int offsetX;
+	/** 绘制纵向像素偏移 */
+	public final int offsetY;
+	/** 每行long个数 */
+	private final int wordsPerRow;
+	/** 从上到下的行，每行从低位开始 */
+	private final long[] bits;
+
+	private AlphaMask(int width, int height, int offsetX, int offsetY) {
+		this.width = width;
+		this.height = height;
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
+		wordsPerRow = (width + 63) >>> 6;
+		bits = new long[wordsPerRow * height];
+	}
+
+	/**
+	 * 从纹理生成透明度位图
+	 * <br>
+	 * 支持堆内RGBA、调色板索引和堆外像素的纹理，alpha不为0的像素视为不透明
+	 *
+	 * @param tex 纹理对象
+	 * @return 透明度位图，空纹理或像素已释放时返回null
+	 */
+	public static AlphaMask of(Texture tex) {
+		if (tex.isEmpty) return null;
+		var mask = new AlphaMask(tex.width, tex.height, tex.offsetX, tex.offsetY);
+		var w = tex.width;
+		if (tex.pixels != null && tex.palette != null) {
+			// 调色板索引，颜色为ARGB格式
+			var palette = tex.palette;
+			for (var y = 0; y < tex.height; ++y) {
+				var row = y * w;
+				for (var x = 0; x < w; ++x) {
+					if (palette[tex.pixels[row + x] & 0xff][0] != 0)
+						mask.set(x, y);
+				}
+			}
+		} else if (tex.pixels != null) {
+			for (var y = 0; y < tex.height; ++y) {
+				var row = y * w * 4 + 3;
+				for (var x = 0; x < w; ++x) {
+					if (tex.pixels[row + x * 4] != 0)
+						mask.set(x, y);
+				}
+			}
+		} else {
+			var buffer = tex.getBuffer();
+			if (buffer == null) return null;
+			var row = new byte[w * 4];
+			for (var y = 0; y < tex.height; ++y) {
+				buffer.get(row);
+				for (var x = 0; x < w; ++x) {
+					if (row[x * 4 + 3] != 0)
+						mask.set(x, y);
+				}
+			}
+		}
+		return mask;
+	}
+
+	private void set(int x, int y) {
+		bits[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+	}
+
+	/**
+	 * 判断纹理内某个像素是否不透明
+	 *
+	 * @param x 纹理内横坐标，从左到右
+	 * @param y 纹理内纵坐标，从上到下
+	 * @return 不透明返回true，超出纹理范围返回false
+	 */
+	public boolean test(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) return false;
+		return (bits[y * wordsPerRow + (x >>> 6)] & 1L << x) != 0;
+	}
+
+	/**
+	 * 判断相对绘制基准点的某个位置是否落在纹理的不透明像素上
+	 * <br>
+	 * 即纹理绘制在基准点加上({@link #offsetX}, {@link #offsetY})处时，该位置是否不透明
+	 *
+	 * @param x 相对基准点的横坐标
+	 * @param y 相对基准点的纵坐标
+	 * @return 不透明返回true
+	 */
+	public boolean hitTest(int x, int y) {
+		return test(x - offsetX, y - offsetY);
+	}
+
+	/** @return 位图占用的字节数 */
+	public int byteSize() {
+		return bits.length * 8;
+	}
+}
@@ -0,0 +1,100 @@
+package com.github.jootnet.m2.core.image;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 透明度位图存储
+ * <br>
+ * 以(文件编号, 纹理编号)为键保存{@link AlphaMask}，与{@link TextureCache}相互独立，纹理被淘汰后位图仍然保留
+ * <br>
+ * 查询不加锁，可被多个图集和线程共享
+ */
+public final class AlphaMaskStore {
+
+	/** 单个图集的位图，按纹理编号存放；写入在原数组上进行，只有编号超出长度时才按倍数扩容 */
+	private static final class Library {
+		volatile AtomicReferenceArray<AlphaMask> masks = new AtomicReferenceArray<>(0);
+	}
+
+	private final Map<String, Library> libraries = new ConcurrentHashMap<>();
+	/** 所有位图占用的字节数 */
+	private final AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * 保存位图
+	 *
+	 * @param fno  文件编号
+	 * @param no   纹理编号
+	 * @param mask 透明度位图，为null时移除
+	 */
+	public void put(String fno, int no, AlphaMask mask) {
+		var lib = libraries.computeIfAbsent(fno, k -> new Library());
+		synchronized (lib) {
+			var masks = lib.masks;
+			if (no >= masks.length()) {
+				if (mask == null) return;
+				var grown = new AtomicReferenceArray<AlphaMask>(Math.max(no + 1, masks.length() * 2));
+				for (var i = 0; i < masks.length(); ++i) {
+					grown.set(i, masks.get(i));
+				}
+				lib.masks = masks = grown;
+			}
+			var old = masks.getAndSet(no, mask);
+			bytes.addAndGet((mask == null ? 0 : mask.byteSize()) - (old == null ? 0 : old.byteSize()));
+		}
+	}
+
+	/**
+	 * 获取位图
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 * @return 透明度位图，没有时返回null
+	 */
+	public AlphaMask get(String fno, int no) {
+		var lib = libraries.get(fno);
+		if (lib == null) return null;
+		var masks = lib.masks;
+		return no >= 0 && no < masks.length() ? masks.get(no) : null;
+	}
+
+	/**
+	 * 判断相对绘制基准点的某个位置是否落在纹理的不透明像素上
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 * @param x   相对基准点的横坐标
+	 * @param y   相对基准点的纵坐标
+	 * @return 不透明返回true；位图尚未生成（纹理未加载或为空）时返回false
+	 * @see AlphaMask#hitTest(int, int)
+	 */
+	public boolean hitTest(String fno, int no, int x, int y) {
+		var mask = get(fno, no);
+		return mask != null && mask.hitTest(x, y);
+	}
+
+	/**
+	 * 移除某个图集的所有位图
+	 *
+	 * @param fno 文件编号
+	 */
+	public void remove(String fno) {
+		var lib = libraries.remove(fno);
+		if (lib == null) return;
+		synchronized (lib) {
+			var masks = lib.masks;
+			for (var i = 0; i < masks.length(); ++i) {
+				var mask = masks.get(i);
+				if (mask != null) bytes.addAndGet(-mask.byteSize());
+			}
+		}
+	}
+
+	/** @return 所有位图占用的字节数 */
+	public long bytes() {
+		return bytes.get();
+	}
+}
@@ -0,0 +1,167 @@
+package com.github.jootnet.m2.core.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import com.github.jootnet.m2.core.SDK;
+
+/**
+ * 色彩转换
+ * <br>
+ * 将wzl中的8位调色板索引和16位RGB565色彩数据批量转换为RGBA
+ * <br>
+ * 使用预先计算的查找表，逐行批量读取源数据，通过{@link IntBuffer}视图每像素写入一个int
+ * <br>
+ * 查找表中的int按大端序排列为R、G、B、A四个字节，因此目标视图必须是大端序的
+ */
+public final class ColorConverter {
+	/** RGB565到RGBA的查找表，纯黑为透明色 */
+	private static final int[] RGB565_TO_RGBA = new int[65536];
+	/** 调色板索引到RGBA的查找表，0号颜色为透明色 */
+	private static final int[] PALETTE_TO_RGBA = new int[256];
+
+	static {
+		for (var pdata = 0; pdata < 65536; ++pdata) {
+			var r = (pdata & 0xf800) >> 8;
+			var g = (pdata & 0x7e0) >> 3;
+			var b = (pdata & 0x1f) << 3;
+			var a = (r | g | b) == 0 ? 0 : 0xff;
+			RGB565_TO_RGBA[pdata] = r << 24 | g << 16 | b << 8 | a;
+		}
+		for (var i = 0; i < 256; ++i) {
+			var argb = SDK.palletesInt[i];
+			PALETTE_TO_RGBA[i] = argb << 8 | argb >>> 24;
+		}
+		PALETTE_TO_RGBA[0] &= 0xffffff00; // 与SDK.palletes保持一致
+	}
+
+	/** 线程内复用的行缓冲 */
+	private static final class Rows {
+		byte[] bytes = new byte[0];
+		short[] shorts = new short[0];
+		int[] ints = new int[0];
+
+		void ensure(int width) {
+			if (ints.length < width) {
+				bytes = new byte[width];
+				shorts = new short[width];
+				ints = new int[width];
+			}
+		}
+	}
+
+	private static final ThreadLocal<Rows> rows = ThreadLocal.withInitial(Rows::new);
+
+	private ColorConverter() {}
+
+	/**
+	 * 获取目标缓冲区的大端序int视图
+	 *
+	 * @param sRGBA 目标缓冲区，从0开始写入
+	 * @return int视图
+	 */
+	public static IntBuffer view(ByteBuffer sRGBA) {
+		return sRGBA.duplicate().clear().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+	}
+
+	/**
+	 * 8位调色板数据转换为RGBA
+	 * <br>
+	 * 源数据为从下到上的bmp行，每行开头跳过填充字节；结果为从上到下的行
+	 *
+	 * @param pixels  源数据
+	 * @param p_index 源数据起始位置
+	 * @param width   像素宽度
+	 * @param height  像素高度
+	 * @param dst     大端序int视图，见{@link #view(ByteBuffer)}
+	 */
+	public static void convert8(ByteBuffer pixels, int p_index, int width, int height, IntBuffer dst) {
+		var row = rows.get();
+		row.ensure(width);
+		var src = pixels.duplicate();
+		var skip = SDK.skipBytes(8, width);
+		for (int h = height - 1; h >= 0; --h) {
+			// 跳过填充字节
+			p_index += skip;
+			src.position(p_index);
+			src.get(row.bytes, 0, width);
+			p_index += width;
+			for (int w = 0; w < width; ++w) {
+				row.ints[w] = PALETTE_TO_RGBA[row.bytes[w] & 0xff];
+			}
+			dst.position(h * width);
+			dst.put(row.ints, 0, width);
+		}
+	}
+
+	/**
+	 * 16位RGB565数据转换为RGBA
+	 * <br>
+	 * 源数据为从下到上的bmp行，每行开头跳过填充字节；结果为从上到下的行
+	 *
+	 * @param pixels  源数据，小端序
+	 * @param p_index 源数据起始位置
+	 * @param width   像素宽度
+	 * @param height  像素高度
+	 * @param dst     大端序int视图，见{@link #view(ByteBuffer)}
+	 */
+	public static void convert16(ByteBuffer pixels, int p_index, int width, int height, IntBuffer dst) {
+		var row = rows.get();
+		row.ensure(width);
+		var src = pixels.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		var skip = SDK.skipBytes(16, width);
+		for (int h = height - 1; h >= 0; --h) {
+			// 跳过填充字节
+			p_index += skip;
+			src.position(p_index);
+			src.asShortBuffer().get(row.shorts, 0, width);
+			p_index += width * 2;
+			for (int w = 0; w < width; ++w) {
+				row.ints[w] = RGB565_TO_RGBA[row.shorts[w] & 0xffff];
+			}
+			dst.position(h * width);
+			dst.put(row.ints, 0, width);
+		}
+	}
+
+	/**
+	 * 从上到下排列、无填充字节的16位RGB565数据转换为RGBA
+	 *
+	 * @param pixels 源数据，从当前position开始读取，小端序
+	 * @param count  像素数量
+	 * @param dst    大端序int视图，从当前position开始写入
+	 */
+	public static void convert565(ByteBuffer pixels, int count, IntBuffer dst) {
+		var row = rows.get();
+		row.ensure(Math.min(count, 4096));
+		var src = pixels.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+		for (var off = 0; off < count; off += row.ints.length) {
+			var n = Math.min(row.ints.length, count - off);
+			src.get(row.shorts, 0, n);
+			for (var i = 0; i < n; ++i) {
+				row.ints[i] = RGB565_TO_RGBA[row.shorts[i] & 0xffff];
+			}
+			dst.put(row.ints, 0, n);
+		}
+	}
+
+	/**
+	 * 将从上到下排列的调色板索引展开为RGBA
+	 *
+	 * @param indices 调色板索引
+	 * @param count   像素数量
+	 * @param dst     大端序int视图，从当前position开始写入
+	 */
+	public static void expand(byte[] indices, int count, IntBuffer dst) {
+		var row = rows.get();
+		row.ensure(Math.min(count, 4096));
+		for (var off = 0; off < count; off += row.ints.length) {
+			var n = Math.min(row.ints.length, count - off);
+			for (var i = 0; i < n; ++i) {
+				row.ints[i] = PALETTE_TO_RGBA[indices[off + i] & 0xff];
+			}
+			dst.put(row.ints, 0, n);
+		}
+	}
+}
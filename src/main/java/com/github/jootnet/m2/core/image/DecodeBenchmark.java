@@ -0,0 +1,159 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.github.jootnet.m2.core.SDK;
+
+/**
+ * 纹理解码基准测试
+ * <br>
+ * 色彩转换：{@link ColorConverter}的查找表批量转换与原来逐像素转换的对比，使用随机数据，两者结果逐字节校验
+ * <br>
+ * 整库解码：给出wzx文件时，比较在当前线程逐个解码和在{@link ForkJoinPool#commonPool()}上并行解码所有纹理的耗时
+ * <br>
+ * 命令行用法：DecodeBenchmark [wzx文件...]
+ */
+final class DecodeBenchmark {
+	/** 预热轮数 */
+	private static final int WARMUP_ROUNDS = 5;
+	/** 计时轮数，取最快的一轮 */
+	private static final int ROUNDS = 10;
+	/** 色彩转换测试的纹理尺寸和数量 */
+	private static final int WIDTH = 250, HEIGHT = 250, FRAMES = 64;
+
+	private DecodeBenchmark() {}
+
+	public static void main(String[] args) throws IOException {
+		for (var bits : new int[] { 8, 16 }) {
+			convert(bits);
+		}
+		for (var arg : args) {
+			library(arg);
+		}
+	}
+
+	/** 色彩转换对比 */
+	private static void convert(int bits) {
+		var random = new Random(bits);
+		var frames = new byte[FRAMES][SDK.widthBytes(bits * WIDTH) * HEIGHT];
+		for (var frame : frames) {
+			random.nextBytes(frame);
+		}
+		var legacy = new byte[WIDTH * HEIGHT * 4];
+		var lut = new byte[WIDTH * HEIGHT * 4];
+		var legacyNanos = Long.MAX_VALUE;
+		var lutNanos = Long.MAX_VALUE;
+		for (var round = 0; round < WARMUP_ROUNDS + ROUNDS; ++round) {
+			var begin = System.nanoTime();
+			for (var frame : frames) {
+				if (bits == 8) legacy8(frame, WIDTH, HEIGHT, legacy);
+				else legacy16(frame, WIDTH, HEIGHT, legacy);
+			}
+			var mid = System.nanoTime();
+			for (var frame : frames) {
+				var dst = ColorConverter.view(ByteBuffer.wrap(lut));
+				if (bits == 8) ColorConverter.convert8(ByteBuffer.wrap(frame), 0, WIDTH, HEIGHT, dst);
+				else ColorConverter.convert16(ByteBuffer.wrap(frame), 0, WIDTH, HEIGHT, dst);
+			}
+			var end = System.nanoTime();
+			if (round >= WARMUP_ROUNDS) {
+				legacyNanos = Math.min(legacyNanos, mid - begin);
+				lutNanos = Math.min(lutNanos, end - mid);
+			}
+		}
+		if (!Arrays.equals(legacy, lut))
+			throw new IllegalStateException(bits + "-bit conversion differs from the per-pixel loop");
+		var pixels = (double) WIDTH * HEIGHT * FRAMES;
+		System.out.println(String.format("%2d-bit %dx%d x%d: per-pixel %.1f Mpx/s, lookup table %.1f Mpx/s, %.2fx", bits, WIDTH, HEIGHT,
+				FRAMES, pixels * 1e3 / legacyNanos, pixels * 1e3 / lutNanos, (double) legacyNanos / lutNanos));
+	}
+
+	/** 整库解码对比 */
+	private static void library(String fn) throws IOException {
+		var pool = ForkJoinPool.commonPool();
+		try (var reader = FrameSource.open(fn)) {
+			var serialNanos = Long.MAX_VALUE;
+			var parallelNanos = Long.MAX_VALUE;
+			for (var round = 0; round < WARMUP_ROUNDS + ROUNDS; ++round) {
+				var begin = System.nanoTime();
+				for (var no = 0; no < reader.getImageCount(); ++no) {
+					if (!reader.isEmpty(no))
+						reader.decode(no, reader.frame(no), TextureDecoder.RGBA);
+				}
+				var mid = System.nanoTime();
+				var futures = new ArrayList<Future<Texture>>();
+				for (var no = 0; no < reader.getImageCount(); ++no) {
+					if (reader.isEmpty(no)) continue;
+					var frame = reader.frame(no);
+					var idx = no;
+					futures.add(pool.submit(() -> reader.decode(idx, frame, TextureDecoder.RGBA)));
+				}
+				try {
+					for (var future : futures) {
+						future.get();
+					}
+				} catch (InterruptedException | ExecutionException e) {
+					throw new IOException(e);
+				}
+				var end = System.nanoTime();
+				if (round >= WARMUP_ROUNDS) {
+					serialNanos = Math.min(serialNanos, mid - begin);
+					parallelNanos = Math.min(parallelNanos, end - mid);
+				}
+			}
+			System.out.println(String.format("%s: %d frames, serial %.1fms, parallel %.1fms on %d threads, %.2fx", fn,
+					reader.getImageCount(), serialNanos / 1e6, parallelNanos / 1e6, pool.getParallelism(),
+					(double) serialNanos / parallelNanos));
+		}
+	}
+
+	/** 原来的8位逐像素转换 */
+	private static void legacy8(byte[] pixels, int width, int height, byte[] sRGBA) {
+		int p_index = 0;
+		for (int h = height - 1; h >= 0; --h)
+			for (int w = 0; w < width; ++w) {
+				// 跳过填充字节
+				if (w == 0)
+					p_index += SDK.skipBytes(8, width);
+				byte[] pallete = SDK.palletes[pixels[p_index++] & 0xff];
+				int _idx = (w + h * width) * 4;
+				sRGBA[_idx] = pallete[1];
+				sRGBA[_idx + 1] = pallete[2];
+				sRGBA[_idx + 2] = pallete[3];
+				sRGBA[_idx + 3] = pallete[0];
+			}
+	}
+
+	/** 原来的16位逐像素转换 */
+	private static void legacy16(byte[] pixels, int width, int height, byte[] sRGBA) {
+		ByteBuffer bb = ByteBuffer.wrap(pixels).order(ByteOrder.LITTLE_ENDIAN);
+		int p_index = 0;
+		for (int h = height - 1; h >= 0; --h)
+			for (int w = 0; w < width; ++w, p_index += 2) {
+				// 跳过填充字节
+				if (w == 0)
+					p_index += SDK.skipBytes(16, width);
+				short pdata = bb.getShort(p_index);
+				byte r = (byte) ((pdata & 0xf800) >> 8);
+				byte g = (byte) ((pdata & 0x7e0) >> 3);
+				byte b = (byte) ((pdata & 0x1f) << 3);
+				int _idx = (w + h * width) * 4;
+				sRGBA[_idx] = r;
+				sRGBA[_idx + 1] = g;
+				sRGBA[_idx + 2] = b;
+				if (r == 0 && g == 0 && b == 0) {
+					sRGBA[_idx + 3] = 0;
+				} else {
+					sRGBA[_idx + 3] = -1;
+				}
+			}
+	}
+}
@@ -0,0 +1,93 @@
+package com.github.jootnet.m2.core.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 堆外直接缓冲区池
+ * <br>
+ * 按2的幂次划分容量等级，释放的缓冲区在总量不超过上限时留待复用
+ * <br>
+ * 用于存放纹理像素，渲染器可以直接将其交给glTexImage2D等函数，无需再拷贝到堆外
+ */
+public final class DirectBufferPool {
+	/** 最小容量等级（4K） */
+	private static final int MIN_SHIFT = 12;
+	/** 最大容量等级（64M），超过的缓冲区不入池 */
+	private static final int MAX_SHIFT = 26;
+
+	@SuppressWarnings("unchecked")
+	private final Queue<ByteBuffer>[] free = (Queue<ByteBuffer>[]) new Queue<?>[MAX_SHIFT - MIN_SHIFT + 1];
+	/** 池内缓冲区总容量上限 */
+	private final long maxPooledBytes;
+	/** 池内缓冲区总容量 */
+	private final AtomicLong pooledBytes = new AtomicLong();
+
+	/**
+	 * 创建缓冲区池
+	 *
+	 * @param maxPooledBytes 池内留存缓冲区的总容量上限（字节）
+	 */
+	public DirectBufferPool(long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+		for (var i = 0; i < free.length; ++i) {
+			free[i] = new ConcurrentLinkedQueue<>();
+		}
+	}
+
+	/**
+	 * 获取缓冲区
+	 * <br>
+	 * 返回的缓冲区position为0，limit为请求的大小，内容未清零
+	 *
+	 * @param size 需要的字节数
+	 * @return 直接缓冲区
+	 */
+	public ByteBuffer acquire(int size) {
+		var shift = shiftOf(size);
+		if (shift > MAX_SHIFT)
+			return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+		var buffer = free[shift - MIN_SHIFT].poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(1 << shift).order(ByteOrder.nativeOrder());
+		} else {
+			pooledBytes.addAndGet(-buffer.capacity());
+		}
+		buffer.clear().limit(size);
+		return buffer;
+	}
+
+	/**
+	 * 归还缓冲区，归还后调用者不得再访问该缓冲区
+	 *
+	 * @param buffer 通过{@link #acquire(int)}获取的缓冲区
+	 */
+	public void release(ByteBuffer buffer) {
+		var capacity = buffer.capacity();
+		var shift = shiftOf(capacity);
+		if (shift > MAX_SHIFT || (1 << shift) != capacity)
+			return;
+		if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+			pooledBytes.addAndGet(-capacity);
+			return;
+		}
+		free[shift - MIN_SHIFT].offer(buffer);
+	}
+
+	/**
+	 * 获取池内留存的缓冲区总容量
+	 *
+	 * @return 字节数
+	 */
+	public long pooledBytes() {
+		return pooledBytes.get();
+	}
+
+	private static int shiftOf(int size) {
+		if (size <= 1 << MIN_SHIFT) return MIN_SHIFT;
+		return 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+}
@@ -0,0 +1,132 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import com.github.jootnet.m2.core.SDK;
+
+/**
+ * 纹理数据来源
+ * <br>
+ * {@link WZL}通过该接口从不同格式的本地文件或微端下载的数据切分和解码纹理，新的图集格式只需实现该接口
+ */
+interface FrameSource extends ImageLibrary {
+
+	/**
+	 * 打开图集
+	 *
+	 * @see ImageLibrary#open(String)
+	 */
+	static FrameSource open(String fn) throws IOException {
+		var dataFn = dataFile(fn);
+		if (dataFn == null)
+			throw new FileNotFoundException(SDK.changeFileExtension(fn, "") + ".{wzp,wzl,wil}");
+		if (dataFn.endsWith(".wzp"))
+			return new WZPReader(dataFn);
+		if (dataFn.endsWith(".wzl"))
+			return new WZLReader(SDK.changeFileExtension(fn, "wzx"), dataFn);
+		return new WILReader(SDK.changeFileExtension(fn, "wix"), dataFn);
+	}
+
+	/**
+	 * 按wzp、wzl、wil的顺序查找图集的数据文件
+	 * <br>
+	 * 同级目录存在wzx/wzl时，只有由当前wzx/wzl转换而来的wzp才被使用，源文件被替换后的旧wzp被忽略
+	 *
+	 * @param fn 图集的索引或数据文件路径
+	 * @return 数据文件路径，找不到时返回null
+	 */
+	static String dataFile(String fn) {
+		var wzpFn = SDK.changeFileExtension(fn, "wzp");
+		var wzxFn = SDK.changeFileExtension(fn, "wzx");
+		var wzlFn = SDK.changeFileExtension(fn, "wzl");
+		var hasSource = Files.exists(Paths.get(wzxFn)) && Files.exists(Paths.get(wzlFn));
+		if (Files.exists(Paths.get(wzpFn)) && (!hasSource || isCurrent(wzpFn, wzxFn, wzlFn)))
+			return wzpFn;
+		if (hasSource)
+			return wzlFn;
+		var wilFn = SDK.changeFileExtension(fn, "wil");
+		return Files.exists(Paths.get(wilFn)) ? wilFn : null;
+	}
+
+	/**
+	 * 按扩展名判断图集格式
+	 *
+	 * @param fn 图集的索引或数据文件路径
+	 * @return true表示wix/wil格式，否则为wzx/wzl格式
+	 */
+	static boolean isWil(String fn) {
+		var lower = fn.toLowerCase();
+		return lower.endsWith(".wix") || lower.endsWith(".wil");
+	}
+
+	/**
+	 * 解析微端下载的索引文件
+	 *
+	 * @param fn    图集的索引或数据文件路径，按扩展名区分格式
+	 * @param index 小端字节序的索引文件内容
+	 * @return 纹理数据起始偏移，空纹理为0；多出的最后一个元素留给数据文件长度
+	 * @throws IOException 索引不完整
+	 */
+	static int[] offsets(String fn, ByteBuffer index) throws IOException {
+		return isWil(fn) ? WILReader.offsets(index, fn) : WZLReader.offsets(index, fn);
+	}
+
+	/**
+	 * 创建微端模式的纹理数据来源
+	 * <br>
+	 * 数据文件尚未下载，{@link #frame(int)}不可用；由调用者按{@link #dataLength(int)}切分下载的数据，再通过
+	 * {@link #decode(int, ByteBuffer, TextureDecoder)}和{@link #hash(int, ByteBuffer, long)}解码，与本地文件相同
+	 *
+	 * @param fn         图集的索引或数据文件路径，按扩展名区分格式
+	 * @param offsetList {@link #offsets(String, ByteBuffer)}的结果，最后一个元素为数据文件长度
+	 * @param header     数据文件中第一张纹理之前的部分
+	 * @param url        数据文件网络地址，用于错误信息
+	 * @return 纹理数据来源
+	 * @throws IOException 数据文件头部无法识别
+	 */
+	static FrameSource remote(String fn, int[] offsetList, ByteBuffer header, String url) throws IOException {
+		if (isWil(fn))
+			return new WILReader(offsetList, header, null, url);
+		return new WZLReader(offsetList, null);
+	}
+
+	/** wzp是否由当前的wzx/wzl转换而来，无法判断时视为过期 */
+	private static boolean isCurrent(String wzpFn, String wzxFn, String wzlFn) {
+		try (var wzp = new WZPReader(wzpFn)) {
+			return wzp.isCurrent(wzxFn, wzlFn);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/** @return 纹理在文件中占用的字节数，空纹理返回0 */
+	int dataLength(int no);
+
+	/**
+	 * 获取纹理数据所在的区域
+	 * <br>
+	 * 返回的缓冲区为独立视图，可以交给其他线程解码
+	 */
+	ByteBuffer frame(int no) throws IOException;
+
+	/**
+	 * 解码{@link #frame(int)}返回的纹理数据
+	 *
+	 * @return 纹理对象，数据不完整时返回null
+	 */
+	Texture decode(int no, ByteBuffer frame, TextureDecoder decoder) throws IOException;
+
+	/**
+	 * 计算{@link #frame(int)}返回的纹理数据的哈希
+	 * <br>
+	 * 除数据本身外还包含尺寸、偏移、格式等影响解码结果的信息，哈希相同的纹理解码结果相同
+	 *
+	 * @param seed 种子，用于区分不同的解码方式
+	 */
+	long hash(int no, ByteBuffer frame, long seed);
+}
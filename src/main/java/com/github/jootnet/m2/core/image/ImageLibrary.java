@@ -0,0 +1,69 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 本地图集
+ * <br>
+ * 所有图集格式（wzx/wzl、wzp、wix/wil）的随机读取接口；{@link WZL}的加载调度、缓存、并行解码和微端下载对所有格式通用
+ * <br>
+ * 实现类的{@link #get(int)}是同步调用，可以被多个线程同时调用
+ */
+public interface ImageLibrary extends Closeable {
+
+	/**
+	 * 打开图集
+	 * <br>
+	 * 在索引文件同级目录按wzp、wzl、wil的顺序查找同名数据文件，使用找到的第一种格式
+	 *
+	 * @param fn 图集的索引或数据文件路径，扩展名不限
+	 * @return 图集
+	 * @throws IOException 找不到数据文件，或文件无法打开
+	 */
+	static ImageLibrary open(String fn) throws IOException {
+		return FrameSource.open(fn);
+	}
+
+	/** @return 库内图片总数 */
+	int getImageCount();
+
+	/**
+	 * 判断纹理是否为空
+	 *
+	 * @param no 纹理编号，从0开始
+	 * @return true表示纹理为空
+	 */
+	boolean isEmpty(int no);
+
+	/**
+	 * 解码特定编号纹理
+	 *
+	 * @param no 纹理编号，从0开始
+	 * @return 纹理对象，空纹理返回共享的空纹理
+	 * @throws IOException 纹理数据损坏或图集已关闭
+	 */
+	Texture get(int no) throws IOException;
+
+	/**
+	 * 解码特定编号纹理
+	 *
+	 * @param no      纹理编号，从0开始
+	 * @param indexed 8位纹理是否保留调色板索引
+	 * @return 纹理对象，空纹理返回共享的空纹理
+	 * @throws IOException 纹理数据损坏或图集已关闭
+	 */
+	Texture get(int no, boolean indexed) throws IOException;
+
+	/**
+	 * 读取所有纹理的元数据，不解码像素
+	 *
+	 * @return 元数据
+	 * @throws IOException 数据损坏或图集已关闭
+	 */
+	TextureMeta meta() throws IOException;
+
+	/** 关闭图集，之后不得再读取纹理 */
+	@Override
+	void close();
+}
@@ -0,0 +1,189 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+
+/**
+ * LZ4块格式压缩与解压
+ * <br>
+ * 与LZ4官方块格式兼容（不含帧头），压缩采用单次哈希查找的快速模式
+ * <br>
+ * 解压速度远高于zlib，用于wzp文件中的纹理数据
+ */
+final class LZ4 {
+	/** 最短匹配长度 */
+	private static final int MIN_MATCH = 4;
+	/** 最后一个匹配必须在距离结尾该长度之前开始 */
+	private static final int MF_LIMIT = 12;
+	/** 结尾至少保留的字面量长度 */
+	private static final int LAST_LITERALS = 5;
+	/** 最大匹配距离 */
+	private static final int MAX_DISTANCE = 65535;
+	private static final int HASH_LOG = 12;
+
+	private LZ4() {}
+
+	/**
+	 * 压缩后可能的最大长度
+	 *
+	 * @param len 原始数据长度
+	 * @return 目标缓冲区需要的长度
+	 */
+	static int maxCompressedLength(int len) {
+		return len + len / 255 + 16;
+	}
+
+	/**
+	 * 压缩数据
+	 *
+	 * @param src 原始数据
+	 * @param len 原始数据长度
+	 * @param dst 目标缓冲区，长度至少为{@link #maxCompressedLength(int)}
+	 * @return 压缩后的长度
+	 */
+	static int compress(byte[] src, int len, byte[] dst) {
+		var table = new int[1 << HASH_LOG];
+		var anchor = 0;
+		var op = 0;
+		if (len > MF_LIMIT) {
+			var mfLimit = len - MF_LIMIT;
+			var matchLimit = len - LAST_LITERALS;
+			var ip = 1;
+			while (ip < mfLimit) {
+				var seq = readInt(src, ip);
+				var h = hash(seq);
+				var ref = table[h];
+				table[h] = ip;
+				if (ip - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+					// 长时间没有匹配时加快跳过
+					ip += 1 + ((ip - anchor) >>> 6);
+					continue;
+				}
+				// 向前扩展匹配
+				while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+					--ip;
+					--ref;
+				}
+				var matchLen = MIN_MATCH;
+				while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+					++matchLen;
+				}
+				op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, matchLen);
+				ip += matchLen;
+				anchor = ip;
+				if (ip < mfLimit)
+					table[hash(readInt(src, ip - 2))] = ip - 2;
+			}
+		}
+		// 最后一段字面量
+		var litLen = len - anchor;
+		var token = op++;
+		op = writeLength(dst, token, op, litLen, 4);
+		System.arraycopy(src, anchor, dst, op, litLen);
+		return op + litLen;
+	}
+
+	/**
+	 * 解压数据
+	 *
+	 * @param src    压缩数据
+	 * @param off    压缩数据起始位置
+	 * @param len    压缩数据长度
+	 * @param dst    目标缓冲区
+	 * @param dstLen 解压后的长度，必须与实际长度一致
+	 * @throws IOException 数据损坏
+	 */
+	static void decompress(byte[] src, int off, int len, byte[] dst, int dstLen) throws IOException {
+		var ip = off;
+		var end = off + len;
+		var op = 0;
+		while (true) {
+			if (ip >= end)
+				throw new IOException("lz4 stream truncated");
+			var token = src[ip++] & 0xff;
+			var litLen = token >>> 4;
+			if (litLen == 15) {
+				int b;
+				do {
+					if (ip >= end)
+						throw new IOException("lz4 stream truncated");
+					b = src[ip++] & 0xff;
+					litLen += b;
+				} while (b == 255);
+			}
+			if (litLen > end - ip || litLen > dstLen - op)
+				throw new IOException("lz4 literal out of range");
+			System.arraycopy(src, ip, dst, op, litLen);
+			ip += litLen;
+			op += litLen;
+			if (ip == end) break; // 最后一段只有字面量
+			if (end - ip < 2)
+				throw new IOException("lz4 stream truncated");
+			var offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+			ip += 2;
+			if (offset == 0 || offset > op)
+				throw new IOException("lz4 offset out of range");
+			var matchLen = token & 15;
+			if (matchLen == 15) {
+				int b;
+				do {
+					if (ip >= end)
+						throw new IOException("lz4 stream truncated");
+					b = src[ip++] & 0xff;
+					matchLen += b;
+				} while (b == 255);
+			}
+			matchLen += MIN_MATCH;
+			if (matchLen > dstLen - op)
+				throw new IOException("lz4 match out of range");
+			var ref = op - offset;
+			if (offset >= matchLen) {
+				System.arraycopy(dst, ref, dst, op, matchLen);
+				op += matchLen;
+			} else {
+				// 重叠复制需要逐字节进行
+				for (var i = 0; i < matchLen; ++i) {
+					dst[op++] = dst[ref++];
+				}
+			}
+		}
+		if (op != dstLen)
+			throw new IOException("lz4 length mismatch: " + op + " != " + dstLen);
+	}
+
+	private static int writeSequence(byte[] dst, int op, byte[] src, int anchor, int litLen, int offset, int matchLen) {
+		var token = op++;
+		op = writeLength(dst, token, op, litLen, 4);
+		System.arraycopy(src, anchor, dst, op, litLen);
+		op += litLen;
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+		var tokenHigh = dst[token];
+		op = writeLength(dst, token, op, matchLen - MIN_MATCH, 0);
+		dst[token] |= tokenHigh;
+		return op;
+	}
+
+	/** 将长度写入token的高/低4位，超出部分按255累加写在op处 */
+	private static int writeLength(byte[] dst, int token, int op, int len, int shift) {
+		if (len < 15) {
+			dst[token] = (byte) (len << shift);
+			return op;
+		}
+		dst[token] = (byte) (15 << shift);
+		len -= 15;
+		while (len >= 255) {
+			dst[op++] = (byte) 255;
+			len -= 255;
+		}
+		dst[op++] = (byte) len;
+		return op;
+	}
+
+	private static int readInt(byte[] src, int i) {
+		return (src[i] & 0xff) | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff) << 16 | (src[i + 3] & 0xff) << 24;
+	}
+
+	private static int hash(int seq) {
+		return (seq * -1640531535) >>> (32 - HASH_LOG);
+	}
+}
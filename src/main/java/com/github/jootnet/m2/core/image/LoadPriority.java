@@ -0,0 +1,15 @@
+package com.github.jootnet.m2.core.image;
+
+/**
+ * 纹理加载优先级
+ * <br>
+ * 高优先级的请求总是先于低优先级的请求加载，所有请求都先于后台顺序加载
+ */
+public enum LoadPriority {
+	/** 后台预加载，如场景附近可能用到的纹理 */
+	Background,
+	/** 预测即将显示，如人物下一个动作的纹理 */
+	Predicted,
+	/** 当前正在显示 */
+	Visible
+}
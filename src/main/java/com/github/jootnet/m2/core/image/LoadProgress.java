@@ -0,0 +1,100 @@
+package com.github.jootnet.m2.core.image;
+
+import java.util.BitSet;
+
+/**
+ * 图集加载进度
+ * <br>
+ * 记录每张纹理是否已加载过（用于后台顺序加载和完成判断）以及当前是否仍驻留（未被缓存淘汰）
+ * <br>
+ * 完成判断和查找下一张未加载纹理都不需要遍历整个图集
+ */
+final class LoadProgress {
+	/** 纹理总数 */
+	private final int imageCount;
+	/** 已加载过的纹理 */
+	private final BitSet visited;
+	/** 当前已加载且未被淘汰的纹理 */
+	private final BitSet resident;
+	/** 已加载过的纹理数量 */
+	private volatile int visitedCount;
+
+	LoadProgress(int imageCount) {
+		this.imageCount = imageCount;
+		visited = new BitSet(imageCount);
+		resident = new BitSet(imageCount);
+	}
+
+	/** @return 纹理总数 */
+	int imageCount() {
+		return imageCount;
+	}
+
+	/** 纹理当前是否已加载且未被淘汰 */
+	synchronized boolean isLoaded(int no) {
+		return resident.get(no);
+	}
+
+	/** 标记纹理已加载 */
+	synchronized void markLoaded(int no) {
+		resident.set(no);
+		if (!visited.get(no)) {
+			visited.set(no);
+			visitedCount++;
+		}
+	}
+
+	/** 标记纹理被淘汰，后台顺序加载不会再次加载它 */
+	synchronized void markEvicted(int no) {
+		resident.clear(no);
+	}
+
+	/** 纹理是否被淘汰过且当前未加载 */
+	synchronized boolean isEvicted(int no) {
+		return visited.get(no) && !resident.get(no);
+	}
+
+	/**
+	 * 查找下一张从未加载过的纹理
+	 *
+	 * @param from 起始编号
+	 * @return 纹理编号，没有时返回-1
+	 */
+	synchronized int nextUnloaded(int from) {
+		var no = visited.nextClearBit(from);
+		return no < imageCount ? no : -1;
+	}
+
+	/** @return 是否所有纹理都已加载过 */
+	boolean isComplete() {
+		return visitedCount == imageCount;
+	}
+
+	/** @return 已加载过的纹理数量 */
+	int loadedCount() {
+		return visitedCount;
+	}
+
+	/** @return 加载进度，取值[0, 1] */
+	float progress() {
+		return imageCount == 0 ? 1 : (float) visitedCount / imageCount;
+	}
+
+	/**
+	 * 根据纹理起始偏移计算每张纹理数据（含头部）的长度
+	 *
+	 * @param offsetList 纹理起始偏移，0表示空纹理；最后一个元素为数据结束位置
+	 * @param imageCount 纹理总数
+	 * @return 每张纹理数据的长度，空纹理为0
+	 */
+	static int[] dataLengths(int[] offsetList, int imageCount) {
+		var lengths = new int[imageCount];
+		var next = offsetList[imageCount];
+		for (var i = imageCount - 1; i >= 0; --i) {
+			if (offsetList[i] == 0) continue;
+			lengths[i] = Math.max(0, next - offsetList[i]);
+			next = offsetList[i];
+		}
+		return lengths;
+	}
+}
@@ -0,0 +1,144 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 微端下载基准测试
+ * <br>
+ * 在本机启动一个模拟CDN的http服务器，每个请求在返回响应头之前等待固定的时延，比较下载同一个文件的耗时：
+ * <br>  逐段请求：原来的方式，每段新建{@link HttpURLConnection}，一次只请求一段，经4K缓冲拷贝到{@link ByteArrayOutputStream}
+ * <br>  并行请求：{@link MicroClientTransport}复用连接，每批同时请求多段，边接收边写入本地文件
+ * <br>
+ * 本机服务器只支持HTTP/1.1，测得的是连接复用和并行请求的效果，不包括HTTP/2多路复用
+ * <br>
+ * 命令行用法：MicroClientBenchmark [时延毫秒=30] [文件MB=8] [每段KB=256] [同时请求数=4]
+ */
+final class MicroClientBenchmark {
+	/** 计时轮数，取最快的一轮 */
+	private static final int ROUNDS = 3;
+
+	private MicroClientBenchmark() {}
+
+	public static void main(String[] args) throws Exception {
+		var latencyMillis = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+		var size = (args.length > 1 ? Integer.parseInt(args[1]) : 8) << 20;
+		var chunk = (args.length > 2 ? Integer.parseInt(args[2]) : 256) << 10;
+		var parallelism = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		var data = new byte[size];
+		new Random(0).nextBytes(data);
+		var server = start(data, latencyMillis);
+		var url = "http://127.0.0.1:" + server.getAddress().getPort() + "/data/bench.wzl";
+		var transport = new MicroClientTransport(HttpClient.newBuilder().executor(Executors.newCachedThreadPool(r -> {
+			var t = new Thread(r, "bench-http");
+			t.setDaemon(true);
+			return t;
+		})).build(), 16);
+		var file = Files.createTempFile("bench", ".part");
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			var legacyNanos = Long.MAX_VALUE;
+			var parallelNanos = Long.MAX_VALUE;
+			for (var round = 0; round < ROUNDS; ++round) {
+				var begin = System.nanoTime();
+				var legacy = legacy(url, size, chunk);
+				var mid = System.nanoTime();
+				var parallel = parallel(transport, url, size, chunk, parallelism, channel);
+				var end = System.nanoTime();
+				if (!Arrays.equals(legacy, data) || !Arrays.equals(parallel, data))
+					throw new IllegalStateException("downloaded data differs");
+				legacyNanos = Math.min(legacyNanos, mid - begin);
+				parallelNanos = Math.min(parallelNanos, end - mid);
+			}
+			System.out.println(String.format("%dMB in %dKB ranges, %dms latency: one range at a time %.0fms, %d at a time over a shared client %.0fms, %.2fx",
+					size >> 20, chunk >> 10, latencyMillis, legacyNanos / 1e6, parallelism, parallelNanos / 1e6, (double) legacyNanos / parallelNanos));
+		} finally {
+			server.stop(0);
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/** 原来的逐段下载 */
+	private static byte[] legacy(String url, int size, int chunk) throws IOException {
+		var result = new byte[size];
+		for (var from = 0; from < size; from += chunk) {
+			var to = Math.min(size, from + chunk) - 1;
+			var conn = (HttpURLConnection) new URL(url).openConnection();
+			conn.setRequestProperty("Range", "bytes=" + from + "-" + to);
+			conn.connect();
+			try (var bos = new ByteArrayOutputStream(); var is = conn.getInputStream()) {
+				var readLen = 0;
+				var buf = new byte[4096];
+				while ((readLen = is.read(buf)) > 0) {
+					bos.write(buf, 0, readLen);
+				}
+				System.arraycopy(bos.toByteArray(), 0, result, from, to - from + 1);
+			}
+			conn.disconnect();
+		}
+		return result;
+	}
+
+	/** 与{@link WZL}微端模式相同，每批同时请求parallelism段，全部完成后再请求下一批 */
+	private static byte[] parallel(MicroClientTransport transport, String url, int size, int chunk, int parallelism, FileChannel file)
+			throws InterruptedException, ExecutionException {
+		var result = new byte[size];
+		for (var batch = 0; batch < size; batch += chunk * parallelism) {
+			@SuppressWarnings("unchecked")
+			CompletableFuture<Integer>[] futures = (CompletableFuture<Integer>[]) new CompletableFuture<?>[parallelism];
+			var dsts = new byte[parallelism][];
+			var count = 0;
+			for (var from = batch; from < size && count < parallelism; from += chunk, ++count) {
+				var to = Math.min(size, from + chunk) - 1;
+				dsts[count] = new byte[to - from + 1];
+				futures[count] = transport.fetchRange(url, from, to, file, dsts[count]);
+			}
+			for (var i = 0; i < count; ++i) {
+				futures[i].get();
+				System.arraycopy(dsts[i], 0, result, batch + i * chunk, dsts[i].length);
+			}
+		}
+		return result;
+	}
+
+	/** 启动http服务器，支持Range请求，每个请求等待latencyMillis后响应 */
+	private static HttpServer start(byte[] data, int latencyMillis) throws IOException {
+		var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/data/", exchange -> {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			var range = exchange.getRequestHeaders().getFirst("Range");
+			var from = 0;
+			var to = data.length - 1;
+			if (range != null) {
+				var bounds = range.substring("bytes=".length()).split("-");
+				from = Integer.parseInt(bounds[0]);
+				to = Math.min(Integer.parseInt(bounds[1]), to);
+				exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+			}
+			exchange.sendResponseHeaders(range != null ? 206 : 200, to - from + 1);
+			try (var out = exchange.getResponseBody()) {
+				out.write(data, from, to - from + 1);
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		return server;
+	}
+}
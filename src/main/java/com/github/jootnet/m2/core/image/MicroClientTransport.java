@@ -0,0 +1,502 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 微端下载
+ * <br>
+ * 基于{@link HttpClient}，连接保持复用，服务器支持时使用HTTP/2多路复用
+ * <br>
+ * 同一对象可被多个图集共享，所有图集同时进行的请求数受同一个上限约束
+ * <br>
+ * 范围请求的响应数据边接收边写入目标文件和解码缓冲区，不经过中间缓冲
+ * <br>
+ * 每个范围请求完成后更新往返时延和单请求吞吐量的估计值，用于确定下一次请求的大小和相邻请求的合并距离
+ * <br>
+ * 每个主机有一个熔断器：连续失败达到一定次数后，一段时间内发往该主机的请求直接失败而不访问网络，
+ * 之后放行一个试探请求，成功则恢复；熔断时间按{@link RetryPolicy}随连续熔断次数增长
+ */
+public final class MicroClientTransport {
+	/** 所有图集共享的默认实例 */
+	private static final MicroClientTransport DEFAULT = new MicroClientTransport(HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.connectTimeout(Duration.ofMillis(1000))
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.build(), 16);
+
+	private final HttpClient client;
+	/** 同时进行的请求数上限 */
+	private final Semaphore permits;
+	/** 单个请求等待响应的超时时间 */
+	private Duration timeout = Duration.ofMillis(3000);
+
+	/** 自适应请求大小下限 */
+	private static final int MIN_CHUNK = 32 * 1024;
+	/** 自适应请求大小上限 */
+	private static final int MAX_CHUNK = 4 * 1024 * 1024;
+	/** 单个请求期望的传输时间（纳秒） */
+	private static final double TARGET_TRANSFER_NANOS = 250e6;
+	/** 小于该字节数的响应传输时间太短，只用于估计往返时延，不计入吞吐量 */
+	private static final int MIN_THROUGHPUT_SAMPLE = 4 * 1024;
+	/** 估计值平滑系数 */
+	private static final double EWMA_ALPHA = 0.25;
+	/** 连续失败多少次后熔断 */
+	private static final int BREAKER_THRESHOLD = 3;
+	/** 熔断时间策略，最长约5秒，主机恢复后能较快重新连接 */
+	private RetryPolicy breakerPolicy = new RetryPolicy(250, 5000);
+	/** 每个主机的熔断器 */
+	private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+	/** 发出的请求数 */
+	private final AtomicLong requests = new AtomicLong();
+	/** 失败的请求数 */
+	private final AtomicLong failures = new AtomicLong();
+	/** 因熔断未发出的请求数 */
+	private final AtomicLong rejections = new AtomicLong();
+	/** 失败后重试的次数 */
+	private final AtomicLong retries = new AtomicLong();
+	/** 往返时延估计值（纳秒），0表示尚无样本 */
+	private double rttNanos;
+	/** 单请求吞吐量估计值（字节/纳秒） */
+	private double bytesPerNano;
+
+	/**
+	 * 创建微端下载对象
+	 *
+	 * @param client                 http客户端
+	 * @param maxConcurrentRequests 同时进行的请求数上限
+	 */
+	public MicroClientTransport(HttpClient client, int maxConcurrentRequests) {
+		this.client = client;
+		this.permits = new Semaphore(maxConcurrentRequests);
+	}
+
+	/**
+	 * 获取所有图集共享的默认实例
+	 *
+	 * @return 默认实例，同时进行的请求数上限为16
+	 */
+	public static MicroClientTransport getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * 设置单个请求等待响应的超时时间
+	 *
+	 * @param timeout 超时时间
+	 * @return 当前对象
+	 */
+	public MicroClientTransport timeout(Duration timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	/**
+	 * 设置熔断时间策略
+	 * <br>
+	 * 第n次连续熔断的时长为{@link RetryPolicy#delayMillis(int)}(n)
+	 *
+	 * @param policy 熔断时间策略
+	 * @return 当前对象
+	 */
+	public MicroClientTransport breakerPolicy(RetryPolicy policy) {
+		this.breakerPolicy = policy;
+		return this;
+	}
+
+	/** @return 发出的请求数 */
+	public long requestCount() {
+		return requests.get();
+	}
+
+	/** @return 失败的请求数（网络错误、超时、5xx、408和429） */
+	public long failureCount() {
+		return failures.get();
+	}
+
+	/** @return 因主机熔断而未发出的请求数 */
+	public long rejectedCount() {
+		return rejections.get();
+	}
+
+	/** @return 失败后重试的次数 */
+	public long retryCount() {
+		return retries.get();
+	}
+
+	/** 记录一次重试 */
+	void recordRetry() {
+		retries.incrementAndGet();
+	}
+
+	/**
+	 * 下载整个文件
+	 *
+	 * @param url 文件地址
+	 * @return 文件内容
+	 * @throws IOException 网络错误或服务器返回非2xx状态码
+	 */
+	public byte[] get(String url) throws IOException {
+		var request = HttpRequest.newBuilder(URI.create(url)).timeout(timeout).GET().build();
+		var response = send(request, HttpResponse.BodyHandlers.ofByteArray());
+		checkStatus(url, response.statusCode());
+		return response.body();
+	}
+
+	/**
+	 * 获取文件长度
+	 *
+	 * @param url 文件地址
+	 * @return 文件长度
+	 * @throws IOException 网络错误、服务器返回非2xx状态码或没有返回Content-Length
+	 */
+	public long contentLength(String url) throws IOException {
+		var request = HttpRequest.newBuilder(URI.create(url)).timeout(timeout)
+				.method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+		var response = send(request, HttpResponse.BodyHandlers.discarding());
+		checkStatus(url, response.statusCode());
+		var length = response.headers().firstValueAsLong("Content-Length").orElse(-1); // 如果是nginx可能没有这个属性，需要设置！
+		if (length < 0)
+			throw new IOException(url + " responded without Content-Length");
+		return length;
+	}
+
+	/**
+	 * 异步下载文件的一段数据
+	 * <br>
+	 * 数据边接收边写入文件的相同位置，同时拷贝到dst；服务器忽略Range返回整个文件时自动跳过前面的数据
+	 * <br>
+	 * 调用线程在同时进行的请求数达到上限时阻塞；主机熔断时返回以{@link CircuitOpenException}结束的Future
+	 *
+	 * @param url  文件地址
+	 * @param from 起始位置（包含）
+	 * @param to   结束位置（包含）
+	 * @param file 写入的文件，可以为null
+	 * @param dst  解码缓冲区，长度至少为to-from+1
+	 * @return 实际接收的字节数
+	 */
+	public CompletableFuture<Integer> fetchRange(String url, long from, long to, FileChannel file, byte[] dst) {
+		var request = HttpRequest.newBuilder(URI.create(url)).timeout(timeout)
+				.header("Range", "bytes=" + from + "-" + to).GET().build();
+		var breaker = breaker(request.uri());
+		try {
+			breaker.acquire(url);
+			permits.acquire();
+		} catch (CircuitOpenException e) {
+			rejections.incrementAndGet();
+			return CompletableFuture.failedFuture(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			breaker.abandon();
+			return CompletableFuture.failedFuture(e);
+		}
+		requests.incrementAndGet();
+		var start = System.nanoTime();
+		var headers = new long[1];
+		try {
+			return client.sendAsync(request, info -> {
+				headers[0] = System.nanoTime();
+				var status = info.statusCode();
+				if (status < 200 || status >= 300)
+					return BodySubscribers.replacing(-status);
+				return new RangeSubscriber(status == 206 ? 0 : from, from, file, dst, (int) (to - from + 1));
+			}).thenApply(response -> {
+				if (response.body() < 0)
+					throw new CompletionException(new HttpStatusException(url, -response.body()));
+				if (response.body() > 0)
+					sample(start, headers[0], System.nanoTime(), response.body());
+				return response.body();
+			}).whenComplete((len, ex) -> {
+				permits.release();
+				record(breaker, ex);
+			});
+		} catch (RuntimeException e) {
+			permits.release();
+			record(breaker, e);
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * 获取往返时延估计值
+	 * <br>
+	 * 即发出范围请求到收到响应头的时间
+	 *
+	 * @return 毫秒数，尚无样本时为0
+	 */
+	public synchronized double rttMillis() {
+		return rttNanos / 1e6;
+	}
+
+	/**
+	 * 获取单个范围请求的吞吐量估计值
+	 *
+	 * @return 每秒字节数，尚无样本时为0
+	 */
+	public synchronized double throughput() {
+		return bytesPerNano * 1e9;
+	}
+
+	/**
+	 * 根据当前的吞吐量和往返时延计算范围请求的大小
+	 * <br>
+	 * 请求既要足够大，使往返时延只占传输时间的一小部分；也不能太大，以免慢速网络下单个请求等待过久
+	 *
+	 * @param initial 尚无样本时使用的大小
+	 * @return 字节数
+	 */
+	public synchronized int chunkSize(int initial) {
+		if (bytesPerNano == 0) return initial;
+		var size = Math.max(bytesPerNano * TARGET_TRANSFER_NANOS, 4 * bytesPerNano * rttNanos);
+		return (int) Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size));
+	}
+
+	/**
+	 * 获取相邻范围的合并距离
+	 * <br>
+	 * 两段数据的间隔不超过一个往返时延内可以传输的数据量时，合并为一个请求比分开请求更快
+	 *
+	 * @return 字节数
+	 */
+	public synchronized int mergeGap() {
+		if (bytesPerNano == 0) return 16 * 1024;
+		return (int) Math.max(4 * 1024, Math.min(MAX_CHUNK / 4, bytesPerNano * rttNanos));
+	}
+
+	/** 记录一个范围请求的耗时 */
+	private synchronized void sample(long start, long headers, long end, int len) {
+		var rtt = headers - start;
+		rttNanos = rttNanos == 0 ? rtt : rttNanos + (rtt - rttNanos) * EWMA_ALPHA;
+		if (len < MIN_THROUGHPUT_SAMPLE)
+			return;
+		var bpn = len / (double) Math.max(end - headers, 1_000_000);
+		bytesPerNano = bytesPerNano == 0 ? bpn : bytesPerNano + (bpn - bytesPerNano) * EWMA_ALPHA;
+	}
+
+	private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+		var breaker = breaker(request.uri());
+		try {
+			breaker.acquire(request.uri().toString());
+		} catch (CircuitOpenException e) {
+			rejections.incrementAndGet();
+			throw e;
+		}
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			breaker.abandon();
+			throw new IOException(e);
+		}
+		requests.incrementAndGet();
+		var error = (Throwable) null;
+		try {
+			var response = client.send(request, handler);
+			if (hostFailure(response.statusCode()))
+				error = new HttpStatusException(request.uri().toString(), response.statusCode());
+			return response;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			breaker.abandon();
+			throw new IOException(e);
+		} catch (IOException | RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			permits.release();
+			if (!Thread.currentThread().isInterrupted())
+				record(breaker, error);
+		}
+	}
+
+	private Breaker breaker(URI uri) {
+		return breakers.computeIfAbsent(uri.getScheme() + "://" + uri.getAuthority(), k -> new Breaker());
+	}
+
+	/** 记录请求结果，更新熔断器 */
+	private void record(Breaker breaker, Throwable ex) {
+		if (ex instanceof CompletionException && ex.getCause() != null)
+			ex = ex.getCause();
+		if (ex == null || (ex instanceof HttpStatusException && !hostFailure(((HttpStatusException) ex).status))) {
+			breaker.success();
+			return;
+		}
+		failures.incrementAndGet();
+		breaker.failure(breakerPolicy);
+	}
+
+	/** 状态码是否表示主机暂时不可用，4xx一般是请求本身的问题 */
+	private static boolean hostFailure(int status) {
+		return status >= 500 || status == 408 || status == 429;
+	}
+
+	private static void checkStatus(String url, int status) throws IOException {
+		if (status < 200 || status >= 300)
+			throw new HttpStatusException(url, status);
+	}
+
+	/** 服务器返回非2xx状态码 */
+	public static final class HttpStatusException extends IOException {
+		private static final long serialVersionUID = 1L;
+		/** http状态码 */
+		public final int status;
+
+		HttpStatusException(String url, int status) {
+			super(url + " responded " + status);
+			this.status = status;
+		}
+	}
+
+	/** 主机处于熔断状态，请求未发出 */
+	public static final class CircuitOpenException extends IOException {
+		private static final long serialVersionUID = 1L;
+		/** 距离允许下一次请求的时间（毫秒） */
+		public final long retryAfterMillis;
+
+		CircuitOpenException(String url, long retryAfterMillis) {
+			super(url + " circuit open, retry after " + retryAfterMillis + "ms");
+			this.retryAfterMillis = retryAfterMillis;
+		}
+	}
+
+	/**
+	 * 主机熔断器
+	 * <br>
+	 * 关闭：正常放行；打开：直接拒绝；半开：只放行一个试探请求，其结果决定关闭还是再次打开
+	 */
+	private static final class Breaker {
+		/** 连续失败次数 */
+		private int failures;
+		/** 连续熔断次数 */
+		private int opens;
+		/** 熔断结束时间（System.nanoTime），0表示未熔断 */
+		private long openUntil;
+		/** 半开状态下是否有试探请求在进行 */
+		private boolean probing;
+
+		synchronized void acquire(String url) throws CircuitOpenException {
+			if (opens == 0) return;
+			var wait = openUntil - System.nanoTime();
+			if (wait > 0)
+				throw new CircuitOpenException(url, TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+			if (probing)
+				throw new CircuitOpenException(url, 100);
+			probing = true;
+		}
+
+		/** 请求被中断，不影响熔断状态 */
+		synchronized void abandon() {
+			probing = false;
+		}
+
+		synchronized void success() {
+			failures = 0;
+			opens = 0;
+			probing = false;
+		}
+
+		synchronized void failure(RetryPolicy policy) {
+			++failures;
+			if (probing || failures >= BREAKER_THRESHOLD) {
+				probing = false;
+				failures = 0;
+				++opens;
+				openUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(policy.delayMillis(opens));
+			}
+		}
+	}
+
+	/** 范围请求响应体，边接收边写入文件和解码缓冲区 */
+	private static final class RangeSubscriber implements BodySubscriber<Integer> {
+		private final CompletableFuture<Integer> result = new CompletableFuture<>();
+		/** 响应体中需要跳过的字节数 */
+		private long skip;
+		/** 文件写入位置 */
+		private long filePos;
+		private final FileChannel file;
+		private final byte[] dst;
+		private final int len;
+		private int received;
+		private Flow.Subscription subscription;
+
+		RangeSubscriber(long skip, long filePos, FileChannel file, byte[] dst, int len) {
+			this.skip = skip;
+			this.filePos = filePos;
+			this.file = file;
+			this.dst = dst;
+			this.len = len;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> items) {
+			if (result.isDone()) return;
+			try {
+				for (var item : items) {
+					if (skip > 0) {
+						var n = (int) Math.min(skip, item.remaining());
+						item.position(item.position() + n);
+						skip -= n;
+					}
+					var n = Math.min(item.remaining(), len - received);
+					if (n <= 0) continue;
+					item.limit(item.position() + n);
+					if (file != null) {
+						var view = item.duplicate();
+						while (view.hasRemaining()) {
+							filePos += file.write(view, filePos);
+						}
+					}
+					item.get(dst, received, n);
+					received += n;
+				}
+				if (received == len) {
+					// 服务器忽略Range时不再接收剩余数据
+					subscription.cancel();
+					result.complete(received);
+				}
+			} catch (IOException e) {
+				subscription.cancel();
+				result.completeExceptionally(e);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			result.completeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			result.complete(received);
+		}
+
+		@Override
+		public CompletionStage<Integer> getBody() {
+			return result;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import com.github.jootnet.m2.core.SDK;
+
+/**
+ * 微端模式下载中的数据文件（wzl或wil）
+ * <br>
+ * 数据按原偏移写入同级目录的稀疏文件（如.wzl.part），已下载的纹理记录在旁边的位图文件（如.wzl.part.map）中
+ * <br>
+ * 客户端中途退出后再次启动时，只要服务器上的索引和数据文件没有变化，已下载的纹理直接从本地读取；
+ * 数据文件头部也已下载时，可以不访问服务器直接使用本地的索引文件和位图中记录的数据文件长度
+ * <br>
+ * 位图不是每次写入都保存，而是间隔一段时间或积累一定数据后保存，关闭时总是保存
+ * <br>
+ * 所有纹理下载完毕后稀疏文件改名为数据文件，位图文件删除
+ * <br>
+ * {@link #close()}可以在其他线程调用（如取消加载时），与加载线程的修改互斥
+ */
+final class PartialDownload {
+	/** 位图文件标识（"WZLP"） */
+	private static final int MAGIC = 0x504c5a57;
+	/** 位图文件头部长度：标识、数据文件长度、纹理总数、索引校验值、数据文件头部是否已下载 */
+	private static final int MAP_HEADER_SIZE = 4 + 8 + 4 + 8 + 4;
+	/** 两次保存位图的最短间隔 */
+	private static final long COMMIT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+	/** 未保存的数据达到该字节数时不等间隔直接保存 */
+	private static final long COMMIT_BYTES = 8 << 20;
+
+	private final Path dataFile;
+	private final Path part;
+	private final Path map;
+	private final long fLen;
+	private final int imageCount;
+	private final long indexCrc;
+	private final FileChannel channel;
+	/** 数据已在稀疏文件中的纹理，只能由加载线程通过{@link #set(int)}和{@link #clear(int, int)}修改 */
+	final BitSet downloaded;
+	/** 数据文件头部是否已在稀疏文件中 */
+	private boolean headerDownloaded;
+	/** 位图在上次保存之后是否有修改 */
+	private boolean dirty;
+	/** 上次保存位图的时间 */
+	private long lastCommit = System.nanoTime();
+	/** 上次保存位图之后写入的字节数 */
+	private long uncommittedBytes;
+
+	/**
+	 * 打开或创建下载中的文件
+	 * <br>
+	 * 位图文件中记录的数据文件长度、纹理总数或索引校验值与当前不一致时丢弃已下载的数据
+	 *
+	 * @param dataFn     数据文件本地路径
+	 * @param fLen       数据文件长度
+	 * @param imageCount 纹理总数
+	 * @param indexCrc   索引文件内容的CRC32
+	 * @throws IOException 文件无法创建
+	 */
+	PartialDownload(String dataFn, long fLen, int imageCount, long indexCrc) throws IOException {
+		this.dataFile = Paths.get(dataFn);
+		this.part = Paths.get(dataFn + ".part");
+		this.map = Paths.get(dataFn + ".part.map");
+		this.fLen = fLen;
+		this.imageCount = imageCount;
+		this.indexCrc = indexCrc;
+		var data = readMap(part, map);
+		BitSet resumed = null;
+		if (data != null && data.getLong(4) == fLen && data.getInt(12) == imageCount && data.getLong(16) == indexCrc) {
+			headerDownloaded = data.getInt(24) != 0;
+			var bits = BitSet.valueOf(data.position(MAP_HEADER_SIZE));
+			if (bits.length() <= imageCount)
+				resumed = bits;
+		}
+		if (resumed == null) {
+			Files.deleteIfExists(map);
+			Files.deleteIfExists(part);
+			resumed = new BitSet(imageCount);
+			headerDownloaded = false;
+		}
+		downloaded = resumed;
+		channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.SPARSE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/** @return 稀疏文件写入通道，按数据文件中的偏移读写 */
+	FileChannel channel() {
+		return channel;
+	}
+
+	/**
+	 * 查询能否不访问服务器继续下载
+	 *
+	 * @param dataFn     数据文件本地路径
+	 * @param imageCount 本地索引文件中的纹理总数
+	 * @param indexCrc   本地索引文件内容的CRC32
+	 * @return 位图与本地索引一致且数据文件头部已下载时返回位图中记录的数据文件长度，否则返回-1
+	 */
+	static long resumableLength(String dataFn, int imageCount, long indexCrc) {
+		var data = readMap(Paths.get(dataFn + ".part"), Paths.get(dataFn + ".part.map"));
+		if (data == null || data.getInt(12) != imageCount || data.getLong(16) != indexCrc || data.getInt(24) == 0)
+			return -1;
+		return data.getLong(4);
+	}
+
+	/**
+	 * 删除下载中的文件，下次从头下载
+	 *
+	 * @param dataFn 数据文件本地路径
+	 * @throws IOException 文件删除失败
+	 */
+	static void discard(String dataFn) throws IOException {
+		Files.deleteIfExists(Paths.get(dataFn + ".part.map"));
+		Files.deleteIfExists(Paths.get(dataFn + ".part"));
+	}
+
+	/** 标记数据文件头部已写入稀疏文件 */
+	synchronized void setHeader() {
+		headerDownloaded = true;
+		dirty = true;
+	}
+
+	/** 标记纹理数据已写入稀疏文件 */
+	synchronized void set(int no) {
+		downloaded.set(no);
+		dirty = true;
+	}
+
+	/** 纹理数据需要重新下载 */
+	synchronized void clear(int from, int to) {
+		downloaded.clear(from, to);
+		dirty = true;
+	}
+
+	/** 读取位图文件，文件不存在或标识不对时返回null */
+	private static ByteBuffer readMap(Path part, Path map) {
+		if (!Files.exists(map) || !Files.exists(part))
+			return null;
+		try {
+			var data = ByteBuffer.wrap(Files.readAllBytes(map)).order(ByteOrder.LITTLE_ENDIAN);
+			return data.remaining() >= MAP_HEADER_SIZE && data.getInt(0) == MAGIC ? data : null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * 记录本次写入稀疏文件的字节数，距上次保存超过一定时间或积累的数据较多时保存位图
+	 *
+	 * @param bytes 字节数
+	 * @throws IOException 文件写入失败
+	 */
+	synchronized void written(long bytes) throws IOException {
+		uncommittedBytes += bytes;
+		if (uncommittedBytes >= COMMIT_BYTES || System.nanoTime() - lastCommit >= COMMIT_INTERVAL_NANOS)
+			commit();
+	}
+
+	/**
+	 * 保存位图
+	 * <br>
+	 * 先将稀疏文件数据刷到磁盘再替换位图文件，中途退出时位图不会记录未落盘的纹理；文件已关闭或位图没有修改时不做任何事
+	 *
+	 * @throws IOException 文件写入失败
+	 */
+	synchronized void commit() throws IOException {
+		if (!channel.isOpen() || !dirty) return;
+		channel.force(false);
+		var bits = downloaded.toByteArray();
+		var data = ByteBuffer.allocate(MAP_HEADER_SIZE + bits.length).order(ByteOrder.LITTLE_ENDIAN);
+		data.putInt(MAGIC).putLong(fLen).putInt(imageCount).putLong(indexCrc).putInt(headerDownloaded ? 1 : 0).put(bits);
+		var tmp = Paths.get(map + ".tmp");
+		Files.write(tmp, data.array());
+		SDK.replaceFile(tmp, map);
+		dirty = false;
+		lastCommit = System.nanoTime();
+		uncommittedBytes = 0;
+	}
+
+	/**
+	 * 所有纹理下载完毕，稀疏文件改名为数据文件
+	 *
+	 * @throws IOException 文件改名失败
+	 */
+	synchronized void promote() throws IOException {
+		channel.close();
+		SDK.replaceFile(part, dataFile);
+		Files.deleteIfExists(map);
+	}
+
+	/** 保存位图并关闭文件，保留已下载的数据 */
+	synchronized void close() {
+		try {
+			commit();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
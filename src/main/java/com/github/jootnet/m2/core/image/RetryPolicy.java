@@ -0,0 +1,45 @@
+package com.github.jootnet.m2.core.image;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 重试策略
+ * <br>
+ * 指数退避，每次等待时间在计算值的一半到全部之间随机取值，避免大量图集同时重试
+ */
+public final class RetryPolicy {
+	/** 默认策略，首次等待约200毫秒，最长约10秒 */
+	public static final RetryPolicy DEFAULT = new RetryPolicy(200, 10_000);
+
+	/** 首次重试等待时间（毫秒） */
+	public final long baseDelayMillis;
+	/** 最长等待时间（毫秒） */
+	public final long maxDelayMillis;
+
+	/**
+	 * 创建重试策略
+	 *
+	 * @param baseDelayMillis 首次重试等待时间（毫秒）
+	 * @param maxDelayMillis  最长等待时间（毫秒）
+	 */
+	public RetryPolicy(long baseDelayMillis, long maxDelayMillis) {
+		if (baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis)
+			throw new IllegalArgumentException("invalid retry delay");
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * 计算重试前的等待时间
+	 *
+	 * @param failures 连续失败次数，从1开始
+	 * @return 毫秒数
+	 */
+	public long delayMillis(int failures) {
+		var shift = Math.min(Math.max(failures - 1, 0), 30);
+		var delay = Math.min(maxDelayMillis, baseDelayMillis << shift);
+		if (delay < 0) delay = maxDelayMillis;
+		var half = delay / 2;
+		return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+	}
+}
@@ -0,0 +1,195 @@
+package com.github.jootnet.m2.core.image;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 共享的纹理加载调度器
+ * <br>
+ * 固定数量的后台线程轮流执行所有任务：优先级高的任务先执行，同优先级按入队顺序轮转
+ * <br>
+ * 任务每执行一步后重新排到队尾，因此单个大图集不会独占线程
+ * <br>
+ * 空闲线程阻塞等待，不做轮询
+ */
+public final class SharedTextureLoadScheduler implements TextureLoadScheduler {
+	/** 默认调度器 */
+	static final SharedTextureLoadScheduler DEFAULT = new SharedTextureLoadScheduler(
+			Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+
+	/** 任务状态：就绪 */
+	private static final int READY = 0;
+	/** 任务状态：等待 */
+	private static final int DELAYED = 1;
+	/** 任务状态：执行中 */
+	private static final int RUNNING = 2;
+
+	private static final class Entry {
+		final TextureLoadTask task;
+		int state;
+		int priority;
+		long seq;
+		long readyAt;
+		boolean wakeupPending;
+		boolean removed;
+
+		Entry(TextureLoadTask task) {
+			this.task = task;
+		}
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	/** 就绪队列，按优先级降序、入队顺序升序 */
+	private final PriorityQueue<Entry> ready = new PriorityQueue<>((a, b) -> a.priority != b.priority
+			? Integer.compare(b.priority, a.priority) : Long.compare(a.seq, b.seq));
+	/** 等待队列，按就绪时间升序 */
+	private final PriorityQueue<Entry> delayed = new PriorityQueue<>((a, b) -> Long.compare(a.readyAt, b.readyAt));
+	private final Map<TextureLoadTask, Entry> entries = new HashMap<>();
+	private final int threadCount;
+	private int startedThreads;
+	private long seq;
+
+	/**
+	 * 创建调度器，线程在第一次提交任务时启动
+	 *
+	 * @param threadCount 后台线程数
+	 */
+	public SharedTextureLoadScheduler(int threadCount) {
+		if (threadCount < 1)
+			throw new IllegalArgumentException("threadCount must be positive");
+		this.threadCount = threadCount;
+	}
+
+	@Override
+	public void submit(TextureLoadTask task) {
+		lock.lock();
+		try {
+			if (entries.containsKey(task)) {
+				wakeup0(entries.get(task));
+				return;
+			}
+			var entry = new Entry(task);
+			entries.put(task, entry);
+			enqueue(entry);
+			if (startedThreads < threadCount) {
+				var t = new Thread(this::work, "WZL-Loader-" + startedThreads++);
+				t.setDaemon(true);
+				t.start();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void wakeup(TextureLoadTask task) {
+		lock.lock();
+		try {
+			var entry = entries.get(task);
+			if (entry != null)
+				wakeup0(entry);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void remove(TextureLoadTask task) {
+		lock.lock();
+		try {
+			var entry = entries.remove(task);
+			if (entry == null)
+				return;
+			entry.removed = true;
+			if (entry.state == READY)
+				ready.remove(entry);
+			else if (entry.state == DELAYED)
+				delayed.remove(entry);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void wakeup0(Entry entry) {
+		if (entry.state == DELAYED) {
+			delayed.remove(entry);
+			enqueue(entry);
+		} else if (entry.state == RUNNING) {
+			entry.wakeupPending = true;
+		}
+	}
+
+	private void enqueue(Entry entry) {
+		entry.state = READY;
+		entry.priority = entry.task.priority();
+		entry.seq = seq++;
+		ready.offer(entry);
+		available.signal();
+	}
+
+	private void work() {
+		while (true) {
+			Entry entry;
+			lock.lock();
+			try {
+				entry = take();
+				entry.state = RUNNING;
+				entry.wakeupPending = false;
+			} finally {
+				lock.unlock();
+			}
+
+			var delay = -1L;
+			try {
+				delay = entry.task.runStep();
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+
+			lock.lock();
+			try {
+				if (entry.removed)
+					continue;
+				if (entry.wakeupPending || delay == 0) {
+					// 执行期间被唤醒说明又有新的工作，即使任务报告已结束也再执行一次
+					enqueue(entry);
+				} else if (delay < 0) {
+					entries.remove(entry.task);
+				} else {
+					entry.state = DELAYED;
+					entry.readyAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+					delayed.offer(entry);
+					available.signal();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/** 取出下一个就绪任务，没有时阻塞等待；调用时必须持有锁 */
+	private Entry take() {
+		while (true) {
+			var now = System.nanoTime();
+			while (!delayed.isEmpty() && delayed.peek().readyAt - now <= 0) {
+				enqueue(delayed.poll());
+			}
+			if (!ready.isEmpty())
+				return ready.poll();
+			if (delayed.isEmpty())
+				available.awaitUninterruptibly();
+			else {
+				try {
+					available.awaitNanos(delayed.peek().readyAt - now);
+				} catch (InterruptedException e) {
+					// 后台线程不响应中断
+				}
+			}
+		}
+	}
+}
@@ -1,7 +1,15 @@
 package com.github.jootnet.m2.core.image;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.github.jootnet.m2.core.SDK;
+
 public final class Texture {
 
+	/** 空图片 */
+	static final Texture EMPTY = new Texture(true, 1, 1, 0, 0, new byte[] { SDK.palletes[0][1], SDK.palletes[0][2], SDK.palletes[0][3], SDK.palletes[0][0] });
+
 	/** 是否为空 */
 	public boolean isEmpty;
 	/** 像素宽度 */
@@ -12,15 +20,229 @@ public final class Texture {
 	public int offsetX;
 	/** 绘制纵向像素偏移 */
 	public int offsetY;
-	/** 像素色彩值 */
+	/** 像素色彩值<br>索引模式下为每像素1字节的调色板索引<br>像素存放在堆外缓冲区时为null */
 	public byte[] pixels;
+	/** 调色板，每个颜色为ARGB格式<br>为null表示像素色彩值为RGBA格式 */
+	public byte[][] palette;
+	/** 存放RGBA像素色彩值的堆外缓冲区 */
+	private ByteBuffer buffer;
+	/** 堆外缓冲区所属的池 */
+	private DirectBufferPool bufferPool;
 	
 	public Texture(boolean isEmpty, int width, int height, int offsetX, int offsetY, byte[] pixels) {
+		this(isEmpty, width, height, offsetX, offsetY, pixels, null);
+	}
+	
+	/**
+	 * 创建纹理
+	 * 
+	 * @param isEmpty 是否为空
+	 * @param width 像素宽度
+	 * @param height 像素高度
+	 * @param offsetX 绘制横向像素偏移
+	 * @param offsetY 绘制纵向像素偏移
+	 * @param pixels 像素色彩值，调色板不为null时为调色板索引
+	 * @param palette 调色板，为null表示像素色彩值为RGBA格式
+	 */
+	public Texture(boolean isEmpty, int width, int height, int offsetX, int offsetY, byte[] pixels, byte[][] palette) {
 		this.isEmpty = isEmpty;
 		this.width = width;
 		this.height = height;
 		this.offsetX = offsetX;
 		this.offsetY = offsetY;
 		this.pixels = pixels;
+		this.palette = palette;
+	}
+
+	/**
+	 * 创建像素存放在堆外缓冲区的纹理
+	 * 
+	 * @param width 像素宽度
+	 * @param height 像素高度
+	 * @param offsetX 绘制横向像素偏移
+	 * @param offsetY 绘制纵向像素偏移
+	 * @param buffer RGBA格式像素色彩值
+	 * @param bufferPool 缓冲区所属的池，{@link #release()}时归还
+	 */
+	Texture(int width, int height, int offsetX, int offsetY, ByteBuffer buffer, DirectBufferPool bufferPool) {
+		this(false, width, height, offsetX, offsetY, null, null);
+		this.buffer = buffer;
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * 获取存放RGBA像素色彩值的堆外缓冲区 <br>
+	 * 可以直接用于glTexImage2D等上传函数
+	 * 
+	 * @return 缓冲区的独立视图，position为0，limit为像素字节数；像素不在堆外或已释放时返回null
+	 */
+	public synchronized ByteBuffer getBuffer() {
+		if (buffer == null) return null;
+		return buffer.duplicate().order(buffer.order());
+	}
+
+	/**
+	 * 释放堆外缓冲区，归还到池中 <br>
+	 * 释放后不得再使用之前通过{@link #getBuffer()}获取的缓冲区
+	 */
+	public synchronized void release() {
+		if (buffer == null) return;
+		if (bufferPool != null)
+			bufferPool.release(buffer);
+		buffer = null;
+		bufferPool = null;
+	}
+
+	/**
+	 * 是否为调色板索引模式
+	 * 
+	 * @return true表示像素色彩值为调色板索引
+	 */
+	public boolean isIndexed() {
+		return palette != null;
+	}
+
+	/**
+	 * 获取RGBA格式像素色彩值 <br>
+	 * 索引模式下每次调用都会展开为新的数组，不会保留在纹理对象中
+	 * 
+	 * @return RGBA格式像素色彩值
+	 */
+	public byte[] toRGBA() {
+		if (palette == null && pixels != null) return pixels;
+		var sRGBA = new byte[width * height * 4];
+		expandTo(sRGBA, 0);
+		return sRGBA;
+	}
+
+	/**
+	 * 将RGBA格式像素色彩值写入指定数组，适用于上传显存时复用缓冲区
+	 * 
+	 * @param dst 目标数组，从dstOff起至少需要width*height*4字节
+	 * @param dstOff 目标数组起始位置
+	 */
+	public void expandTo(byte[] dst, int dstOff) {
+		if (palette == null) {
+			if (pixels != null)
+				System.arraycopy(pixels, 0, dst, dstOff, width * height * 4);
+			else
+				getBuffer().get(dst, dstOff, width * height * 4);
+			return;
+		}
+		if (palette == SDK.palletes) {
+			ColorConverter.expand(pixels, width * height, ByteBuffer.wrap(dst, dstOff, width * height * 4).asIntBuffer());
+			return;
+		}
+		for (int i = 0, n = width * height; i < n; ++i, dstOff += 4) {
+			byte[] pallete = palette[pixels[i] & 0xff];
+			dst[dstOff] = pallete[1];
+			dst[dstOff + 1] = pallete[2];
+			dst[dstOff + 2] = pallete[3];
+			dst[dstOff + 3] = pallete[0];
+		}
+	}
+
+	/**
+	 * 将RGBA格式像素色彩值写入指定缓冲区，适用于索引模式纹理上传显存 <br>
+	 * 从缓冲区当前position开始写入，写入后position后移
+	 * 
+	 * @param dst 目标缓冲区，剩余空间至少需要width*height*4字节
+	 */
+	public void expandTo(ByteBuffer dst) {
+		if (palette == null) {
+			if (pixels != null)
+				dst.put(pixels, 0, width * height * 4);
+			else
+				dst.put(getBuffer());
+			return;
+		}
+		if (palette == SDK.palletes) {
+			var view = dst.slice().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+			ColorConverter.expand(pixels, width * height, view);
+			dst.position(dst.position() + width * height * 4);
+			return;
+		}
+		for (int i = 0, n = width * height; i < n; ++i) {
+			byte[] pallete = palette[pixels[i] & 0xff];
+			dst.put(pallete[1]).put(pallete[2]).put(pallete[3]).put(pallete[0]);
+		}
+	}
+
+	/**
+	 * 裁掉四周完全透明的行和列 <br>
+	 * 绘制偏移随之调整，按偏移绘制的结果与裁剪前完全相同；堆外像素复制到从同一个池获取的较小缓冲区，原缓冲区归还到池中
+	 * 
+	 * @return 裁剪后的纹理；空纹理、全透明纹理或没有透明边框时返回当前对象
+	 */
+	synchronized Texture trimmed() {
+		if (isEmpty || (pixels == null && buffer == null)) return this;
+		var bpp = pixels != null && palette != null ? 1 : 4;
+		var top = 0;
+		while (top < height && transparentRow(top, bpp)) top++;
+		if (top == height) return this;
+		var bottom = height;
+		while (transparentRow(bottom - 1, bpp)) bottom--;
+		var left = width;
+		var right = 0;
+		for (var y = top; y < bottom; ++y) {
+			var row = y * width;
+			for (var x = 0; x < left; ++x) {
+				if (opaque(row + x, bpp)) {
+					left = x;
+					break;
+				}
+			}
+			for (var x = width - 1; x >= right; --x) {
+				if (opaque(row + x, bpp)) {
+					right = x + 1;
+					break;
+				}
+			}
+		}
+		if (left == 0 && top == 0 && right == width && bottom == height) return this;
+		var w = right - left;
+		var h = bottom - top;
+		var rowBytes = w * bpp;
+		if (pixels != null) {
+			var dst = new byte[rowBytes * h];
+			for (var y = 0; y < h; ++y)
+				System.arraycopy(pixels, ((top + y) * width + left) * bpp, dst, y * rowBytes, rowBytes);
+			return new Texture(false, w, h, offsetX + left, offsetY + top, dst, palette);
+		}
+		var dst = bufferPool != null ? bufferPool.acquire(rowBytes * h) : ByteBuffer.allocateDirect(rowBytes * h).order(buffer.order());
+		var src = buffer.duplicate();
+		for (var y = 0; y < h; ++y) {
+			var pos = ((top + y) * width + left) * 4;
+			dst.put(src.limit(pos + rowBytes).position(pos));
+		}
+		dst.flip();
+		var tex = new Texture(w, h, offsetX + left, offsetY + top, dst, bufferPool);
+		release();
+		return tex;
+	}
+
+	/** 第i个像素是否不透明，调色板颜色为ARGB格式，RGBA像素的alpha在第4个字节 */
+	private boolean opaque(int i, int bpp) {
+		if (bpp == 1) return palette[pixels[i] & 0xff][0] != 0;
+		return (pixels != null ? pixels[i * 4 + 3] : buffer.get(i * 4 + 3)) != 0;
+	}
+
+	private boolean transparentRow(int y, int bpp) {
+		var row = y * width;
+		for (var x = 0; x < width; ++x) {
+			if (opaque(row + x, bpp)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 获取纹理像素数据占用的字节数
+	 * 
+	 * @return 字节数
+	 */
+	public int byteSize() {
+		if (pixels != null) return pixels.length;
+		var buffer = this.buffer;
+		return buffer == null ? 0 : buffer.limit();
 	}
 }
@@ -0,0 +1,445 @@
+package com.github.jootnet.m2.core.image;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.github.jootnet.m2.core.actor.HumActionInfo;
+
+/**
+ * 纹理图集
+ * <br>
+ * 将人物、武器、特效等动画帧按天际线算法打包到若干张大尺寸的RGBA页面中，以(文件编号, 纹理编号)查找所在页面和UV坐标，
+ * 绘制一个人物的所有部件只需绑定一次纹理
+ * <br>
+ * 支持增量插入；页面数量达到上限时淘汰最久未使用的页面，页面上的所有纹理需要重新添加
+ * <br>
+ * 页面像素在堆内，渲染器通过{@link Page#takeDirty(int[])}获取变化区域后上传到显存
+ * <br>
+ * 可被多个图集和线程共享
+ */
+public final class TextureAtlas {
+	/** 纹理之间的间隔像素，避免线性过滤时采样到相邻纹理 */
+	private static final int PADDING = 1;
+	/** 每套衣服、武器的贴图数量 */
+	private static final int FRAMES_PER_SET = 600;
+
+	private static final class Key {
+		final String fno;
+		final int no;
+
+		Key(String fno, int no) {
+			this.fno = fno;
+			this.no = no;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			var that = (Key) obj;
+			return no == that.no && fno.equals(that.fno);
+		}
+
+		@Override
+		public int hashCode() {
+			return fno.hashCode() * 31 + no;
+		}
+	}
+
+	/** 纹理在页面中的位置 */
+	public static final class Region {
+		/** 所在页面 */
+		public final Page page;
+		/** 页面内横坐标 */
+		public final int x;
+		/** 页面内纵坐标 */
+		public final int y;
+		/** 像素宽度 */
+		public final int width;
+		/** 像素高度 */
+		public final int height;
+		/** 绘制横向像素偏移 */
+		public final int offsetX;
+		/** 绘制纵向像素偏移 */
+		public final int offsetY;
+		/** 左上角纹理坐标 */
+		public final float u0, v0;
+		/** 右下角纹理坐标 */
+		public final float u1, v1;
+
+		private Region(Page page, int x, int y, Texture tex) {
+			this.page = page;
+			this.x = x;
+			this.y = y;
+			width = tex.width;
+			height = tex.height;
+			offsetX = tex.offsetX;
+			offsetY = tex.offsetY;
+			u0 = (float) x / page.size;
+			v0 = (float) y / page.size;
+			u1 = (float) (x + width) / page.size;
+			v1 = (float) (y + height) / page.size;
+		}
+	}
+
+	/** 图集页面 */
+	public static final class Page {
+		/** 页面编号，淘汰后重新使用的页面编号不变 */
+		public final int index;
+		/** 页面边长 */
+		public final int size;
+		/** RGBA像素，从上到下的行 */
+		public final byte[] pixels;
+		/** 天际线，每段为{横坐标, 高度, 宽度} */
+		private final List<int[]> skyline = new ArrayList<>();
+		/** 页面上的纹理 */
+		private final List<Key> keys = new ArrayList<>();
+		/** 最近一次使用的时间戳 */
+		private long lastUsed;
+		/** 尚未上传的区域{x0, y0, x1, y1}，x0大于x1表示没有变化 */
+		private final int[] dirty = new int[4];
+
+		private Page(int index, int size) {
+			this.index = index;
+			this.size = size;
+			pixels = new byte[size * size * 4];
+			dirty[0] = Integer.MAX_VALUE;
+			dirty[2] = Integer.MIN_VALUE;
+			reset();
+		}
+
+		private void reset() {
+			skyline.clear();
+			skyline.add(new int[] { 0, 0, size });
+			keys.clear();
+			Arrays.fill(pixels, (byte) 0);
+			markDirty(0, 0, size, size);
+		}
+
+		private void markDirty(int x0, int y0, int x1, int y1) {
+			synchronized (dirty) {
+				if (dirty[0] > dirty[2]) {
+					dirty[0] = x0;
+					dirty[1] = y0;
+					dirty[2] = x1;
+					dirty[3] = y1;
+					return;
+				}
+				dirty[0] = Math.min(dirty[0], x0);
+				dirty[1] = Math.min(dirty[1], y0);
+				dirty[2] = Math.max(dirty[2], x1);
+				dirty[3] = Math.max(dirty[3], y1);
+			}
+		}
+
+		/**
+		 * 获取并清除自上次调用以来像素发生变化的区域
+		 *
+		 * @param rect 输出变化区域{x0, y0, x1, y1}，不包含x1和y1
+		 * @return 没有变化时返回false
+		 */
+		public boolean takeDirty(int[] rect) {
+			synchronized (dirty) {
+				if (dirty[0] > dirty[2]) return false;
+				System.arraycopy(dirty, 0, rect, 0, 4);
+				dirty[0] = Integer.MAX_VALUE;
+				dirty[2] = Integer.MIN_VALUE;
+				return true;
+			}
+		}
+
+		/** @return 页面上的纹理数量 */
+		public int regionCount() {
+			return keys.size();
+		}
+
+		/** 查找能放下w*h的位置，返回天际线段下标和纵坐标，放不下时返回null */
+		private int[] find(int w, int h) {
+			int[] best = null;
+			var bestBottom = Integer.MAX_VALUE;
+			var bestWidth = Integer.MAX_VALUE;
+			for (var i = 0; i < skyline.size(); ++i) {
+				var seg = skyline.get(i);
+				var y = fit(i, w, h);
+				if (y < 0) continue;
+				if (y + h < bestBottom || (y + h == bestBottom && seg[2] < bestWidth)) {
+					best = new int[] { i, y };
+					bestBottom = y + h;
+					bestWidth = seg[2];
+				}
+			}
+			return best;
+		}
+
+		/** 从第i段开始放置w*h时的纵坐标，放不下时返回-1 */
+		private int fit(int i, int w, int h) {
+			var x = skyline.get(i)[0];
+			if (x + w > size) return -1;
+			var y = 0;
+			for (var remaining = w; remaining > 0; ++i) {
+				var seg = skyline.get(i);
+				y = Math.max(y, seg[1]);
+				if (y + h > size) return -1;
+				remaining -= seg[2];
+			}
+			return y;
+		}
+
+		/** 在第i段放置w*h，更新天际线 */
+		private void place(int i, int y, int w, int h) {
+			var x = skyline.get(i)[0];
+			skyline.add(i, new int[] { x, y + h, w });
+			for (var j = i + 1; j < skyline.size();) {
+				var seg = skyline.get(j);
+				var overlap = x + w - seg[0];
+				if (overlap <= 0) break;
+				if (overlap < seg[2]) {
+					seg[0] += overlap;
+					seg[2] -= overlap;
+					break;
+				}
+				skyline.remove(j);
+			}
+			// 合并高度相同的相邻段
+			for (var j = 0; j < skyline.size() - 1;) {
+				var a = skyline.get(j);
+				var b = skyline.get(j + 1);
+				if (a[1] == b[1]) {
+					a[2] += b[2];
+					skyline.remove(j + 1);
+				} else {
+					j++;
+				}
+			}
+		}
+	}
+
+	/** 页面边长 */
+	private final int pageSize;
+	/** 页面数量上限 */
+	private final int maxPages;
+	private final List<Page> pages = new ArrayList<>();
+	private final Map<Key, Region> regions = new HashMap<>();
+	private final List<PageEvictionListener> listeners = new CopyOnWriteArrayList<>();
+	/** 使用时间戳 */
+	private long tick;
+	private long evictions;
+
+	/**
+	 * 创建纹理图集
+	 *
+	 * @param pageSize 页面边长，一般为2048或4096
+	 * @param maxPages 页面数量上限
+	 */
+	public TextureAtlas(int pageSize, int maxPages) {
+		this.pageSize = pageSize;
+		this.maxPages = maxPages;
+	}
+
+	/**
+	 * 查找纹理在图集中的位置，同时刷新所在页面的使用时间
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 * @return 纹理位置，未添加或所在页面已被淘汰时返回null
+	 */
+	public synchronized Region get(String fno, int no) {
+		var region = regions.get(new Key(fno, no));
+		if (region != null)
+			region.page.lastUsed = ++tick;
+		return region;
+	}
+
+	/**
+	 * 添加一张纹理
+	 * <br>
+	 * 已添加过的纹理直接返回原来的位置；所有页面都放不下时新建页面，页面数量达到上限时淘汰最久未使用的页面
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 * @param tex 纹理对象
+	 * @return 纹理位置；空纹理、堆外像素已释放或纹理大于页面时返回null
+	 */
+	public Region add(String fno, int no, Texture tex) {
+		return add(fno, no, new Texture[] { tex })[0];
+	}
+
+	/**
+	 * 添加一段连续编号的纹理
+	 * <br>
+	 * 按高度从大到小依次放置，同一批纹理尽量放在同一页面
+	 *
+	 * @param fno  文件编号
+	 * @param from 第一张纹理的编号
+	 * @param texs 纹理对象，第i个的编号为from+i
+	 * @return 每张纹理的位置，空纹理、纹理大于页面或页面不足以放下整批纹理时对应位置为null
+	 */
+	public Region[] add(String fno, int from, Texture[] texs) {
+		var result = new Region[texs.length];
+		var order = new Integer[texs.length];
+		for (var i = 0; i < order.length; ++i) order[i] = i;
+		Arrays.sort(order, (a, b) -> Integer.compare(texs[b].height, texs[a].height));
+		var evicted = new ArrayList<Page>();
+		synchronized (this) {
+			++tick;
+			for (var i : order) {
+				result[i] = place(fno, from + i, texs[i], evicted);
+			}
+		}
+		for (var page : evicted) {
+			for (var listener : listeners) {
+				listener.evicted(page);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 添加人物某个动作的所有帧
+	 * <br>
+	 * 通过{@link WZL#request(int, int)}加载纹理，加载完毕后放入图集
+	 *
+	 * @param wzl    衣服、武器等图集
+	 * @param idx    文件内编号，如{@link com.github.jootnet.m2.core.actor.ChrBasicInfo#humIdx}
+	 * @param action 动作贴图信息
+	 * @return 每一帧的位置
+	 */
+	public CompletableFuture<Region[]> add(WZL wzl, int idx, HumActionInfo action) {
+		var from = idx * FRAMES_PER_SET + action.frameIdx;
+		return wzl.request(from, from + action.frameCount).thenApply(texs -> add(wzl.getFno(), from, texs));
+	}
+
+	private Region place(String fno, int no, Texture tex, List<Page> evicted) {
+		var key = new Key(fno, no);
+		var region = regions.get(key);
+		if (region != null) {
+			region.page.lastUsed = tick;
+			return region;
+		}
+		if (tex.isEmpty || tex.width + PADDING > pageSize || tex.height + PADDING > pageSize)
+			return null;
+		if (tex.pixels == null && tex.getBuffer() == null)
+			return null;
+		var w = tex.width + PADDING;
+		var h = tex.height + PADDING;
+		Page page = null;
+		int[] pos = null;
+		// 优先放在最近使用的页面
+		for (var i = pages.size() - 1; i >= 0 && pos == null; --i) {
+			page = pages.get(i);
+			pos = page.find(w, h);
+		}
+		if (pos == null) {
+			page = newPage(evicted);
+			if (page == null) return null;
+			pos = page.find(w, h);
+		}
+		var y = pos[1];
+		var x = page.skyline.get(pos[0])[0];
+		page.place(pos[0], y, w, h);
+		blit(tex, page, x, y);
+		page.markDirty(x, y, x + tex.width, y + tex.height);
+		page.keys.add(key);
+		page.lastUsed = tick;
+		region = new Region(page, x, y, tex);
+		regions.put(key, region);
+		return region;
+	}
+
+	/** 新建页面，达到上限时清空最久未使用的页面；所有页面都在本批次中使用过时返回null */
+	private Page newPage(List<Page> evicted) {
+		Page page = null;
+		if (pages.size() < maxPages) {
+			page = new Page(pages.size(), pageSize);
+		} else {
+			for (var p : pages) {
+				if (p.lastUsed < tick && (page == null || p.lastUsed < page.lastUsed)) page = p;
+			}
+			if (page == null) return null;
+			pages.remove(page);
+			for (var key : page.keys) {
+				regions.remove(key);
+			}
+			page.reset();
+			evictions++;
+			evicted.add(page);
+		}
+		pages.add(page); // 新建或清空的页面在最后，优先放置
+		return page;
+	}
+
+	/** 复制纹理像素到页面 */
+	private static void blit(Texture tex, Page page, int x, int y) {
+		var rowBytes = tex.width * 4;
+		var buffer = tex.pixels == null ? tex.getBuffer() : null;
+		var rgba = buffer == null ? tex.toRGBA() : null;
+		for (var row = 0; row < tex.height; ++row) {
+			var dst = ((y + row) * page.size + x) * 4;
+			if (rgba != null)
+				System.arraycopy(rgba, row * rowBytes, page.pixels, dst, rowBytes);
+			else
+				buffer.position(row * rowBytes).get(page.pixels, dst, rowBytes);
+		}
+	}
+
+	/**
+	 * 淘汰所有页面
+	 * <br>
+	 * 用于显存重建等场景，不会触发{@link PageEvictionListener}
+	 */
+	public synchronized void clear() {
+		for (var page : pages) {
+			page.reset();
+		}
+		regions.clear();
+	}
+
+	/**
+	 * 添加页面淘汰监听
+	 *
+	 * @param listener 监听函数
+	 * @return 当前对象
+	 */
+	public TextureAtlas addEvictionListener(PageEvictionListener listener) {
+		listeners.add(listener);
+		return this;
+	}
+
+	/**
+	 * 移除页面淘汰监听
+	 *
+	 * @param listener 监听函数
+	 */
+	public void removeEvictionListener(PageEvictionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/** @return 当前页面 */
+	public synchronized Page[] pages() {
+		return pages.toArray(new Page[0]);
+	}
+
+	/** @return 图集中的纹理数量 */
+	public synchronized int size() {
+		return regions.size();
+	}
+
+	/** @return 淘汰页面次数 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	@FunctionalInterface
+	public interface PageEvictionListener {
+		/**
+		 * 页面因数量达到上限被清空时触发，页面上原有纹理的{@link Region}不再有效
+		 *
+		 * @param page 被清空的页面，已开始放入新的纹理
+		 */
+		void evicted(Page page);
+	}
+}
@@ -0,0 +1,242 @@
+package com.github.jootnet.m2.core.image;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 已解码纹理缓存
+ * <br>
+ * 以(文件编号, 纹理编号)为键，按纹理像素数据总字节数限制容量，超出时淘汰最久未使用的纹理
+ * <br>
+ * 被{@link #pin(String, int)}引用的纹理不会被淘汰，直到引用计数通过{@link #unpin(String, int)}归零
+ * <br>
+ * 可被多个图集和线程共享
+ */
+public final class TextureCache {
+
+	private static final class Key {
+		final String fno;
+		final int no;
+
+		Key(String fno, int no) {
+			this.fno = fno;
+			this.no = no;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			var that = (Key) obj;
+			return no == that.no && fno.equals(that.fno);
+		}
+
+		@Override
+		public int hashCode() {
+			return fno.hashCode() * 31 + no;
+		}
+	}
+
+	private static final class Entry {
+		final Texture tex;
+		final long size;
+		int pins;
+
+		Entry(Texture tex) {
+			this.tex = tex;
+			this.size = tex.byteSize();
+		}
+	}
+
+	/** 访问顺序排列，最久未使用的在前 */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+	private final List<EvictionListener> listeners = new CopyOnWriteArrayList<>();
+	/** 容量（字节） */
+	private final long maxBytes;
+	/** 当前缓存的字节数 */
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * 创建纹理缓存
+	 *
+	 * @param maxBytes 缓存纹理像素数据的最大字节数
+	 */
+	public TextureCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * 获取缓存的纹理
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 * @return 纹理对象，未缓存时返回null
+	 */
+	public synchronized Texture get(String fno, int no) {
+		var entry = entries.get(new Key(fno, no));
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.tex;
+	}
+
+	/**
+	 * 判断纹理是否在缓存中，不计入命中统计，也不刷新使用顺序
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 * @return true表示已缓存
+	 */
+	public synchronized boolean contains(String fno, int no) {
+		return entries.containsKey(new Key(fno, no));
+	}
+
+	/**
+	 * 缓存纹理，如果超出容量则淘汰最久未使用且未被引用的纹理
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 * @param tex 纹理对象
+	 */
+	public void put(String fno, int no, Texture tex) {
+		List<Key> evicted;
+		List<Texture> evictedTextures;
+		synchronized (this) {
+			var key = new Key(fno, no);
+			var entry = new Entry(tex);
+			var old = entries.put(key, entry);
+			if (old != null) {
+				entry.pins = old.pins;
+				bytes -= old.size;
+			}
+			bytes += entry.size;
+			if (bytes <= maxBytes)
+				return;
+			evicted = new ArrayList<>();
+			evictedTextures = new ArrayList<>();
+			var it = entries.entrySet().iterator();
+			while (bytes > maxBytes && it.hasNext()) {
+				var e = it.next();
+				if (e.getValue().pins > 0 || e.getKey().equals(key))
+					continue;
+				it.remove();
+				bytes -= e.getValue().size;
+				evictions++;
+				evicted.add(e.getKey());
+				evictedTextures.add(e.getValue().tex);
+			}
+		}
+		for (var i = 0; i < evicted.size(); ++i) {
+			for (var listener : listeners) {
+				listener.evicted(evicted.get(i).fno, evicted.get(i).no, evictedTextures.get(i));
+			}
+		}
+	}
+
+	/**
+	 * 获取并引用缓存的纹理，被引用的纹理不会被淘汰
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 * @return 纹理对象，未缓存时返回null且不增加引用
+	 */
+	public synchronized Texture pin(String fno, int no) {
+		var entry = entries.get(new Key(fno, no));
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		entry.pins++;
+		return entry.tex;
+	}
+
+	/**
+	 * 释放一次{@link #pin(String, int)}引用
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 */
+	public synchronized void unpin(String fno, int no) {
+		var entry = entries.get(new Key(fno, no));
+		if (entry != null && entry.pins > 0)
+			entry.pins--;
+	}
+
+	/**
+	 * 移除缓存的纹理，不论是否被引用
+	 * <br>
+	 * 不会触发{@link EvictionListener}
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 */
+	public synchronized void remove(String fno, int no) {
+		var entry = entries.remove(new Key(fno, no));
+		if (entry != null)
+			bytes -= entry.size;
+	}
+
+	/**
+	 * 添加纹理淘汰监听
+	 *
+	 * @param listener 监听函数
+	 * @return 当前对象
+	 */
+	public TextureCache addEvictionListener(EvictionListener listener) {
+		listeners.add(listener);
+		return this;
+	}
+
+	/**
+	 * 移除纹理淘汰监听
+	 *
+	 * @param listener 监听函数
+	 */
+	public void removeEvictionListener(EvictionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/** @return 当前缓存的字节数 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	/** @return 缓存的纹理数量 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/** @return 命中次数 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/** @return 未命中次数 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/** @return 淘汰次数 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	@FunctionalInterface
+	public interface EvictionListener {
+		/**
+		 * 纹理因超出容量被淘汰时触发
+		 *
+		 * @param fno 文件编号
+		 * @param no  纹理编号
+		 * @param tex 被淘汰的纹理对象
+		 */
+		void evicted(String fno, int no, Texture tex);
+	}
+}
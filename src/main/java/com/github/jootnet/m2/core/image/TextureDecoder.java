@@ -0,0 +1,196 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.github.jootnet.m2.core.SDK;
+
+/**
+ * 纹理解码
+ * <br>
+ * 从wzl纹理数据（16字节头部+色彩数据）解析出{@link Texture}
+ * <br>
+ * 色彩数据直接从传入的缓冲区读取，适用于内存映射区域
+ * <br>
+ * 解码选项在开始解码前设置，之后同一对象可被多个线程同时使用
+ */
+final class TextureDecoder {
+	/** 纹理头部字节数 */
+	static final int HEADER_SIZE = 16;
+	/** 默认解码方式，所有纹理转换为RGBA */
+	static final TextureDecoder RGBA = new TextureDecoder();
+	/** 8位纹理保留调色板索引 */
+	static final TextureDecoder INDEXED = new TextureDecoder();
+	static {
+		INDEXED.indexed = true;
+	}
+
+	/** 8位纹理是否保留调色板索引而不展开为RGBA */
+	boolean indexed;
+	/** 不为null时RGBA像素写入从该池获取的堆外缓冲区 */
+	DirectBufferPool directPool;
+
+	/**
+	 * 计算缓冲区当前位置纹理数据（含头部）的总长度
+	 *
+	 * @param buffer 小端字节序缓冲区
+	 * @return 纹理数据总长度，头部不完整时返回-1
+	 */
+	static int frameLength(ByteBuffer buffer) {
+		var pos = buffer.position();
+		if (buffer.limit() - pos < HEADER_SIZE)
+			return -1;
+		var colorBit = buffer.get(pos);
+		var width = buffer.getShort(pos + 4);
+		var height = buffer.getShort(pos + 6);
+		var dataLen = buffer.getInt(pos + 12);
+		if (dataLen == 0) {
+			dataLen = width * height;
+			if (colorBit == 5) dataLen *= 2;
+		}
+		return HEADER_SIZE + dataLen;
+	}
+
+	/**
+	 * 计算缓冲区当前位置纹理数据（含头部）的哈希
+	 *
+	 * @param buffer 小端字节序缓冲区，position不变
+	 * @param seed   种子
+	 * @return 哈希值；数据不完整时为剩余数据的哈希
+	 */
+	static long hash(ByteBuffer buffer, long seed) {
+		var frameLen = frameLength(buffer);
+		if (frameLen < 0 || frameLen > buffer.remaining())
+			return XXHash64.hash(buffer, seed);
+		return XXHash64.hash(buffer.duplicate().limit(buffer.position() + frameLen), seed);
+	}
+
+	/**
+	 * 解析缓冲区当前位置的一张纹理
+	 * <br>
+	 * 成功后缓冲区position移动到纹理数据之后
+	 *
+	 * @param buffer 小端字节序缓冲区
+	 * @return 纹理对象，数据不完整时返回null且position不变
+	 * @throws IOException 纹理数据无法解压
+	 */
+	Texture decode(ByteBuffer buffer) throws IOException {
+		var frameLen = frameLength(buffer);
+		if (frameLen < 0 || buffer.remaining() < frameLen)
+			return null;
+		var pos = buffer.position();
+		var colorBit = buffer.get(pos);
+		var width = buffer.getShort(pos + 4);
+		var height = buffer.getShort(pos + 6);
+		var offsetX = buffer.getShort(pos + 8);
+		var offsetY = buffer.getShort(pos + 10);
+		var pixels = payload(buffer, frameLen);
+		buffer.position(pos + frameLen);
+		return texture(colorBit, pixels, pixels.position(), width, height, offsetX, offsetY);
+	}
+
+	/**
+	 * 从未压缩的色彩数据创建纹理
+	 * <br>
+	 * 色彩数据为从下到上的bmp行，每行开头有填充字节，使每行（含填充）按4字节对齐
+	 *
+	 * @param colorBit  色彩位数标记，5表示16位RGB565，其他为8位调色板索引
+	 * @param pixels    小端字节序色彩数据
+	 * @param pixelsPos 色彩数据起始位置
+	 * @return 纹理对象
+	 */
+	Texture texture(byte colorBit, ByteBuffer pixels, int pixelsPos, short width, short height, short offsetX, short offsetY) {
+		if (colorBit != 5 && indexed)
+			return new Texture(false, width, height, offsetX, offsetY, unpad(pixels, pixelsPos, width, height, 1), SDK.palletes);
+		var pool = directPool;
+		if (pool != null) {
+			var dst = pool.acquire(width * height * 4);
+			convert(colorBit, pixels, pixelsPos, width, height, dst);
+			return new Texture(width, height, offsetX, offsetY, dst, pool);
+		}
+		byte[] sRGBA = new byte[width * height * 4];
+		convert(colorBit, pixels, pixelsPos, width, height, ByteBuffer.wrap(sRGBA));
+		return new Texture(false, width, height, offsetX, offsetY, sRGBA);
+	}
+
+	/**
+	 * 解析缓冲区当前位置纹理的色彩数据，去除填充字节并按从上到下的行顺序排列
+	 * <br>
+	 * 8位纹理每像素1字节调色板索引，16位纹理每像素2字节小端RGB565；用于将纹理转换为其他存储格式
+	 *
+	 * @param buffer 小端字节序缓冲区，position不变
+	 * @return 色彩数据，数据不完整时返回null
+	 * @throws IOException 纹理数据无法解压
+	 */
+	static byte[] rows(ByteBuffer buffer) throws IOException {
+		var frameLen = frameLength(buffer);
+		if (frameLen < 0 || buffer.remaining() < frameLen)
+			return null;
+		var pos = buffer.position();
+		var colorBit = buffer.get(pos);
+		var width = buffer.getShort(pos + 4);
+		var height = buffer.getShort(pos + 6);
+		var pixels = payload(buffer, frameLen);
+		return unpad(pixels, pixels.position(), width, height, colorBit == 5 ? 2 : 1);
+	}
+
+	/** 获取纹理的色彩数据，需要时解压；返回的缓冲区position指向色彩数据开头 */
+	private static ByteBuffer payload(ByteBuffer buffer, int frameLen) throws IOException {
+		var pos = buffer.position();
+		var colorBit = buffer.get(pos);
+		var compressFlag = buffer.get(pos + 1) != 0;
+		var width = buffer.getShort(pos + 4);
+		var height = buffer.getShort(pos + 6);
+		if (buffer.getInt(pos + 12) == 0) {
+			// 这里可能是一个bug，或者是其他引擎作者没有说清楚
+			// 本来一直以为是compressFlag作为是否zlib压缩的标志位
+			// 后来发现如果这里的长度是0，则表示没有压缩，后面是图片尺寸的裸数据
+			compressFlag = false;
+		}
+		var src = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		src.limit(pos + frameLen).position(pos + HEADER_SIZE);
+		if (!compressFlag)
+			return src;
+		// 解压后的长度是确定的：每行按4字节对齐
+		return inflate(src, SDK.widthBytes((colorBit == 5 ? 16 : 8) * width) * height);
+	}
+
+	/** 线程内复用的解压缓冲区 */
+	private static final ThreadLocal<byte[]> inflateBuffers = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+	/** 解压到线程内复用的缓冲区，返回的缓冲区只在下一次解压前有效 */
+	private static ByteBuffer inflate(ByteBuffer src, int expectedLen) throws IOException {
+		var buf = inflateBuffers.get();
+		if (buf.length < expectedLen) {
+			buf = new byte[Integer.highestOneBit(expectedLen - 1) << 1];
+			inflateBuffers.set(buf);
+		}
+		SDK.inflate(src, buf, 0, expectedLen);
+		return ByteBuffer.wrap(buf, 0, expectedLen).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/** 色彩数据去除填充字节并按从上到下的行顺序排列 */
+	private static byte[] unpad(ByteBuffer pixels, int p_index, int width, int height, int bytesPerPixel) {
+		var rowBytes = width * bytesPerPixel;
+		var rows = new byte[rowBytes * height];
+		var src = pixels.duplicate();
+		var skip = SDK.skipBytes(8 * bytesPerPixel, width);
+		for (int h = height - 1; h >= 0; --h) {
+			// 跳过填充字节
+			p_index += skip;
+			src.position(p_index);
+			src.get(rows, h * rowBytes, rowBytes);
+			p_index += rowBytes;
+		}
+		return rows;
+	}
+
+	/** 色彩数据转换为RGBA，写入目标缓冲区从0开始的位置 */
+	private static void convert(byte colorBit, ByteBuffer pixels, int pixelsPos, int width, int height, ByteBuffer sRGBA) {
+		if (colorBit != 5) // 8位
+			ColorConverter.convert8(pixels, pixelsPos, width, height, ColorConverter.view(sRGBA));
+		else // 16位
+			ColorConverter.convert16(pixels, pixelsPos, width, height, ColorConverter.view(sRGBA));
+	}
+}
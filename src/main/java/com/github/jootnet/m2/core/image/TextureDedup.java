@@ -0,0 +1,113 @@
+package com.github.jootnet.m2.core.image;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 跨图集的重复纹理合并
+ * <br>
+ * 解码前计算纹理数据（压缩数据及其头部）的xxHash64，所有打开的图集中数据相同的纹理共享同一个{@link Texture}对象，
+ * 命中时省去解码，也只占用一份内存；常见于重复的地砖以及不同衣服文件中相同的帧
+ * <br>
+ * 只保存弱引用，纹理不再被缓存或渲染器引用后自动移除
+ * <br>
+ * 共享的纹理对象不得修改；像素存放在堆外缓冲区（{@link WZL#directPixels(DirectBufferPool)}）的纹理需要各自释放，不参与合并
+ * <br>
+ * 可被多个图集和线程共享
+ */
+public final class TextureDedup {
+
+	private static final class Ref extends WeakReference<Texture> {
+		final long hash;
+
+		Ref(long hash, Texture tex, ReferenceQueue<Texture> queue) {
+			super(tex, queue);
+			this.hash = hash;
+		}
+	}
+
+	private final Map<Long, Ref> textures = new ConcurrentHashMap<>();
+	private final ReferenceQueue<Texture> queue = new ReferenceQueue<>();
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong savedBytes = new AtomicLong();
+
+	/**
+	 * 查找数据相同的已解码纹理
+	 *
+	 * @param hash 纹理的哈希
+	 * @return 纹理对象，没有时返回null
+	 */
+	Texture get(long hash) {
+		expunge();
+		lookups.incrementAndGet();
+		var ref = textures.get(hash);
+		var tex = ref == null ? null : ref.get();
+		if (tex != null) {
+			hits.incrementAndGet();
+			savedBytes.addAndGet(tex.byteSize());
+		}
+		return tex;
+	}
+
+	/**
+	 * 记录解码完毕的纹理
+	 * <br>
+	 * 其他线程已记录了相同数据的纹理时返回已记录的纹理
+	 *
+	 * @param hash 纹理的哈希
+	 * @param tex  纹理对象
+	 * @return 应当使用的纹理对象
+	 */
+	Texture put(long hash, Texture tex) {
+		var ref = new Ref(hash, tex, queue);
+		while (true) {
+			var old = textures.putIfAbsent(hash, ref);
+			if (old == null)
+				return tex;
+			var shared = old.get();
+			if (shared != null) {
+				hits.incrementAndGet();
+				savedBytes.addAndGet(shared.byteSize());
+				return shared;
+			}
+			if (textures.replace(hash, old, ref))
+				return tex;
+		}
+	}
+
+	/** 移除已被回收的纹理 */
+	private void expunge() {
+		for (Ref ref; (ref = (Ref) queue.poll()) != null;) {
+			textures.remove(ref.hash, ref);
+		}
+	}
+
+	/** @return 当前记录的不同纹理数量，包括尚未移除的已回收纹理 */
+	public int size() {
+		return textures.size();
+	}
+
+	/** @return 查找次数 */
+	public long lookups() {
+		return lookups.get();
+	}
+
+	/** @return 被合并的纹理数量，即省去的解码次数 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/** @return 合并节省的像素字节数 */
+	public long savedBytes() {
+		return savedBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		return "TextureDedup[unique=" + size() + ", lookups=" + lookups() + ", deduplicated=" + hits() + ", savedBytes=" + savedBytes() + "]";
+	}
+}
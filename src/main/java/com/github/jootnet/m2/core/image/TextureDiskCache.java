@@ -0,0 +1,406 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.github.jootnet.m2.core.SDK;
+
+/**
+ * 已解码纹理磁盘缓存
+ * <br>
+ * 解码后的像素按图集保存到缓存目录，下次启动时直接从内存映射读取，省去解压和色彩转换
+ * <br>
+ * 每个图集的每种解码选项（是否裁剪透明边框、是否保留调色板索引）一个缓存文件，文件名包含源文件路径的哈希、
+ * 解码选项和源文件指纹（长度、修改时间和文件头的校验值）；源文件变化后指纹不同，旧的缓存文件在打开时删除
+ * <br>
+ * 缓存文件前64字节是头部（0x04处为纹理总数，0x08处为解码选项），之后是每张纹理一个24字节的索引条目，纹理数据按64字节对齐追加在后面
+ * <br>
+ * 可以被多个图集共享，所有缓存文件的总大小不超过上限，单个缓存文件不超过2GB，超过后不再写入新的纹理
+ * <br>
+ * 读取时按64MB分段映射，文件增长后只重新映射需要的分段
+ * <br>
+ * 图集不再加载时通过{@link #release(Library)}关闭其缓存文件；不再使用时调用{@link #close()}关闭所有缓存文件
+ */
+public final class TextureDiskCache implements AutoCloseable {
+	/** 文件标识 */
+	private static final int MAGIC = 0x31434454; // "TDC1"
+	/** 头部字节数 */
+	private static final int HEADER_SIZE = 64;
+	/** 索引条目字节数 */
+	private static final int ENTRY_SIZE = 24;
+	/** 纹理数据对齐字节数 */
+	private static final int ALIGN = 64;
+	/** 像素格式：RGBA */
+	private static final byte FORMAT_RGBA = 1;
+	/** 像素格式：8位调色板索引 */
+	private static final byte FORMAT_INDEXED8 = 2;
+	/** 缓存文件扩展名 */
+	private static final String EXT = ".tdc";
+	/** 映射分段字节数，纹理数据按起始位置所在的分段读取 */
+	private static final long SEGMENT_SIZE = 64 << 20;
+	/** 单个缓存文件的大小上限，映射分段内的位置不超过int范围 */
+	private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+	/** 缓存目录 */
+	private final Path dir;
+	/** 所有缓存文件的总大小上限 */
+	private final long maxBytes;
+	/** 所有缓存文件的总大小 */
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	/** 已打开的缓存文件，同一文件只打开一次 */
+	private final Map<Path, Library> libraries = new HashMap<>();
+	/** 是否已关闭 */
+	private boolean closed;
+
+	/**
+	 * 创建磁盘缓存
+	 *
+	 * @param dir      缓存目录，不存在时自动创建
+	 * @param maxBytes 所有缓存文件的总大小上限（字节）
+	 * @throws IOException 目录无法创建或读取
+	 */
+	public TextureDiskCache(Path dir, long maxBytes) throws IOException {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(dir);
+		try (var files = Files.newDirectoryStream(dir, "*" + EXT)) {
+			for (var file : files) {
+				bytes.addAndGet(Files.size(file));
+			}
+		}
+	}
+
+	/** @return 所有缓存文件的总大小 */
+	public long bytes() {
+		return bytes.get();
+	}
+
+	/** @return 命中次数 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/** @return 未命中次数 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * 打开图集的缓存文件
+	 * <br>
+	 * 同一源文件之前生成的、指纹不同的缓存文件被删除；同一缓存文件被多次打开时共用，每次打开需要对应一次{@link #release(Library)}
+	 *
+	 * @param fno        文件编号
+	 * @param source     源文件（wzl、wzp或wil）
+	 * @param imageCount 纹理总数
+	 * @param options    解码选项，不同选项解码出的纹理分别缓存
+	 * @return 图集缓存
+	 * @throws IOException 源文件或缓存文件无法读取，或磁盘缓存已关闭
+	 */
+	synchronized Library open(String fno, Path source, int imageCount, int options) throws IOException {
+		if (closed)
+			throw new IOException("disk cache closed");
+		var prefix = fno + "-" + Integer.toHexString(source.toAbsolutePath().normalize().toString().hashCode())
+				+ "-" + Integer.toHexString(options) + "-";
+		var file = dir.resolve(prefix + Long.toHexString(fingerprint(source)) + EXT);
+		var lib = libraries.get(file);
+		if (lib != null) {
+			lib.refs++;
+			return lib;
+		}
+		// 源文件已变化，删除旧的缓存
+		try (var files = Files.newDirectoryStream(dir, prefix + "*" + EXT)) {
+			for (var old : files) {
+				if (old.equals(file)) continue;
+				var stale = libraries.remove(old);
+				if (stale != null)
+					stale.close();
+				var size = Files.size(old);
+				if (Files.deleteIfExists(old))
+					bytes.addAndGet(-size);
+			}
+		}
+		lib = new Library(file, imageCount, options);
+		libraries.put(file, lib);
+		return lib;
+	}
+
+	/**
+	 * 释放一次{@link #open(String, Path, int, int)}打开的缓存文件
+	 * <br>
+	 * 所有打开者都释放后关闭文件，已缓存的数据保留在磁盘上
+	 *
+	 * @param lib 图集缓存
+	 */
+	synchronized void release(Library lib) {
+		if (--lib.refs > 0) return;
+		libraries.remove(lib.file, lib);
+		lib.close();
+	}
+
+	/**
+	 * 关闭所有缓存文件
+	 * <br>
+	 * 之后{@link #open(String, Path, int, int)}抛出异常，已打开的图集缓存不再命中也不再写入
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (var lib : libraries.values()) {
+			lib.close();
+		}
+		libraries.clear();
+	}
+
+	/** 源文件指纹：长度、修改时间和前4K数据的校验值 */
+	private static long fingerprint(Path source) throws IOException {
+		var crc = new CRC32();
+		try (var channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			var head = ByteBuffer.allocate((int) Math.min(4096, channel.size()));
+			while (head.hasRemaining() && channel.read(head, head.position()) > 0) {}
+			crc.update(head.flip());
+		}
+		var size = Files.size(source);
+		var mtime = Files.getLastModifiedTime(source).toMillis();
+		return (size * 31 + mtime) * 0x9E3779B97F4A7C15L ^ crc.getValue();
+	}
+
+	/** 单个图集的缓存文件 */
+	final class Library {
+		private final Path file;
+		private final FileChannel channel;
+		private final int imageCount;
+		/** 解码选项 */
+		private final int options;
+		/** 打开次数，由{@link TextureDiskCache}同步 */
+		private int refs = 1;
+		/** 是否已关闭 */
+		private boolean closed;
+		/** 索引的内存副本 */
+		private final ByteBuffer index;
+		/** 文件写入位置 */
+		private long end;
+		/** 文件映射分段，按需映射，文件增长后重新映射最后一段 */
+		private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+		private Library(Path file, int imageCount, int options) throws IOException {
+			this.file = file;
+			this.imageCount = imageCount;
+			this.options = options;
+			index = ByteBuffer.allocate(imageCount * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			var existed = Files.exists(file);
+			var oldSize = existed ? Files.size(file) : 0;
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			if (existed && readIndex()) {
+				end = align(channel.size());
+				return;
+			}
+			// 新建或损坏的缓存文件
+			channel.truncate(0);
+			bytes.addAndGet(-oldSize);
+			var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(0, MAGIC).putInt(4, imageCount).putInt(8, options);
+			write(header, 0);
+			write(index.duplicate(), HEADER_SIZE);
+			end = align(HEADER_SIZE + (long) index.capacity());
+			bytes.addAndGet(end);
+		}
+
+		private boolean readIndex() throws IOException {
+			var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (channel.size() > MAX_FILE_SIZE || channel.read(header, 0) != HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != imageCount
+					|| header.getInt(8) != options)
+				return false;
+			while (index.hasRemaining()) {
+				if (channel.read(index, HEADER_SIZE + index.position()) < 0)
+					return false;
+			}
+			index.clear();
+			// 去掉写入不完整的条目
+			var size = channel.size();
+			for (var no = 0; no < imageCount; ++no) {
+				var entry = no * ENTRY_SIZE;
+				if (index.getLong(entry) + index.getInt(entry + 8) > size)
+					index.putLong(entry, 0);
+			}
+			return true;
+		}
+
+		/**
+		 * 查找已缓存的纹理
+		 *
+		 * @param no      纹理编号
+		 * @param decoder 解码选项，决定返回堆内还是堆外像素、是否保留调色板索引
+		 * @return 纹理对象，未缓存时返回null
+		 */
+		synchronized Texture get(int no, TextureDecoder decoder) {
+			var entry = no * ENTRY_SIZE;
+			var offset = closed ? 0 : index.getLong(entry);
+			if (offset == 0) {
+				misses.incrementAndGet();
+				return null;
+			}
+			var len = index.getInt(entry + 8);
+			var width = index.getShort(entry + 12);
+			var height = index.getShort(entry + 14);
+			var offsetX = index.getShort(entry + 16);
+			var offsetY = index.getShort(entry + 18);
+			var format = index.get(entry + 20);
+			ByteBuffer data;
+			try {
+				data = map(offset, len);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+			hits.incrementAndGet();
+			var count = width * height;
+			if (format == FORMAT_INDEXED8) {
+				var indices = new byte[count];
+				data.get(indices);
+				if (decoder.indexed)
+					return new Texture(false, width, height, offsetX, offsetY, indices, SDK.palletes);
+				var pool = decoder.directPool;
+				var dst = pool != null ? pool.acquire(count * 4) : ByteBuffer.wrap(new byte[count * 4]);
+				ColorConverter.expand(indices, count, ColorConverter.view(dst));
+				return pool != null ? new Texture(width, height, offsetX, offsetY, dst, pool)
+						: new Texture(false, width, height, offsetX, offsetY, dst.array());
+			}
+			var pool = decoder.directPool;
+			if (pool != null) {
+				var dst = pool.acquire(len);
+				dst.duplicate().put(data);
+				return new Texture(width, height, offsetX, offsetY, dst, pool);
+			}
+			var sRGBA = new byte[len];
+			data.get(sRGBA);
+			return new Texture(false, width, height, offsetX, offsetY, sRGBA);
+		}
+
+		/**
+		 * 缓存纹理
+		 * <br>
+		 * 先写入数据再写入索引条目，中途退出不会留下指向无效数据的条目；总大小超过上限时不写入
+		 *
+		 * @param no  纹理编号
+		 * @param tex 解码完毕的纹理
+		 */
+		synchronized void put(int no, Texture tex) {
+			var entry = no * ENTRY_SIZE;
+			if (closed || tex.isEmpty || no < 0 || no >= imageCount || index.getLong(entry) != 0)
+				return;
+			ByteBuffer data;
+			byte format;
+			if (tex.palette == SDK.palletes && tex.pixels != null) {
+				data = ByteBuffer.wrap(tex.pixels);
+				format = FORMAT_INDEXED8;
+			} else if (tex.palette == null && tex.pixels != null) {
+				data = ByteBuffer.wrap(tex.pixels);
+				format = FORMAT_RGBA;
+			} else {
+				data = tex.getBuffer();
+				if (data == null) {
+					data = ByteBuffer.wrap(tex.toRGBA());
+				}
+				format = FORMAT_RGBA;
+			}
+			var len = data.remaining();
+			var size = align(len);
+			if (end + size > MAX_FILE_SIZE)
+				return;
+			if (bytes.addAndGet(size) > maxBytes) {
+				bytes.addAndGet(-size);
+				return;
+			}
+			try {
+				write(data, end);
+				index.putLong(entry, end).putInt(entry + 8, len)
+						.putShort(entry + 12, (short) tex.width).putShort(entry + 14, (short) tex.height)
+						.putShort(entry + 16, (short) tex.offsetX).putShort(entry + 18, (short) tex.offsetY)
+						.put(entry + 20, format);
+				write(index.duplicate().position(entry).limit(entry + ENTRY_SIZE), HEADER_SIZE + entry);
+				end += size;
+			} catch (IOException e) {
+				e.printStackTrace();
+				index.putLong(entry, 0);
+				bytes.addAndGet(-size);
+			}
+		}
+
+		/**
+		 * 映射[offset, offset + len)所在的区域
+		 * <br>
+		 * 每段从分段起点开始映射到文件末尾，最多映射两个分段的长度，跨越分段边界的纹理也能完整读取
+		 */
+		private ByteBuffer map(long offset, int len) throws IOException {
+			var k = (int) (offset / SEGMENT_SIZE);
+			if (k >= segments.length)
+				segments = Arrays.copyOf(segments, k + 1);
+			var start = k * SEGMENT_SIZE;
+			var segment = segments[k];
+			if (segment == null || offset + len > start + segment.limit()) {
+				if (segment != null)
+					unmap(segment);
+				var size = Math.max(offset + len, Math.min(channel.size(), start + 2 * SEGMENT_SIZE)) - start;
+				segments[k] = segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+			}
+			var pos = (int) (offset - start);
+			return segment.duplicate().limit(pos + len).position(pos);
+		}
+
+		private void write(ByteBuffer data, long pos) throws IOException {
+			while (data.hasRemaining()) {
+				pos += channel.write(data, pos);
+			}
+		}
+
+		/** 关闭文件并解除映射，返回的纹理都是拷贝，不再引用映射区域 */
+		private synchronized void close() {
+			if (closed) return;
+			closed = true;
+			for (var segment : segments) {
+				if (segment != null)
+					unmap(segment);
+			}
+			segments = new MappedByteBuffer[0];
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * 立即解除映射
+	 * <br>
+	 * 映射区域默认在被回收后才释放，期间Windows上无法删除或替换文件；不支持时仍等待回收
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			var unsafeClass = Class.forName("sun.misc.Unsafe");
+			var field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// 等待虚拟机回收
+		}
+	}
+
+	private static long align(long pos) {
+		return (pos + ALIGN - 1) & -ALIGN;
+	}
+}
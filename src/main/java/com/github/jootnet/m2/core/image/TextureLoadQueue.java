@@ -0,0 +1,143 @@
+package com.github.jootnet.m2.core.image;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * 分级纹理加载队列
+ * <br>
+ * 每个{@link LoadPriority}一个先进先出队列，取出时先取高优先级的请求
+ * <br>
+ * 请求可以带有截止时间，过期的请求在取出时被丢弃
+ */
+final class TextureLoadQueue {
+
+	private static final class Entry {
+		final int no;
+		/** 截止时间（System.nanoTime），0表示不过期 */
+		final long deadline;
+
+		Entry(int no, long deadline) {
+			this.no = no;
+			this.deadline = deadline;
+		}
+	}
+
+	private static final LoadPriority[] PRIORITIES = LoadPriority.values();
+
+	@SuppressWarnings("unchecked")
+	private final ArrayDeque<Entry>[] tiers = (ArrayDeque<Entry>[]) new ArrayDeque<?>[PRIORITIES.length];
+	/** 过期丢弃的请求数量 */
+	private long expired;
+	/** 最近一次取出的请求 */
+	private Entry last;
+	/** 最近一次取出的请求所在优先级 */
+	private int lastTier;
+
+	TextureLoadQueue() {
+		for (var i = 0; i < tiers.length; ++i) {
+			tiers[i] = new ArrayDeque<>();
+		}
+	}
+
+	/**
+	 * 加入请求
+	 *
+	 * @param no       纹理编号
+	 * @param priority 优先级
+	 * @param deadline 截止时间（System.nanoTime），0表示不过期
+	 */
+	synchronized void offer(int no, LoadPriority priority, long deadline) {
+		tiers[priority.ordinal()].offer(new Entry(no, deadline));
+	}
+
+	/**
+	 * 取出优先级最高且未过期的请求
+	 *
+	 * @return 纹理编号，没有请求时返回-1
+	 */
+	synchronized int poll() {
+		var now = System.nanoTime();
+		for (var i = tiers.length - 1; i >= 0; --i) {
+			Entry entry;
+			while ((entry = tiers[i].poll()) != null) {
+				if (entry.deadline != 0 && entry.deadline - now < 0) {
+					expired++;
+					continue;
+				}
+				last = entry;
+				lastTier = i;
+				return entry.no;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 将最近一次取出的请求放回其优先级队列的头部
+	 * <br>
+	 * 用于加载失败后重试，请求保持原有的优先级和截止时间
+	 */
+	synchronized void requeue() {
+		if (last == null) return;
+		tiers[lastTier].offerFirst(last);
+		last = null;
+	}
+
+	/**
+	 * 移除某个纹理的所有请求
+	 *
+	 * @param no 纹理编号
+	 */
+	synchronized void remove(int no) {
+		for (var tier : tiers) {
+			for (Iterator<Entry> it = tier.iterator(); it.hasNext();) {
+				if (it.next().no == no)
+					it.remove();
+			}
+		}
+	}
+
+	/**
+	 * 获取队列中最高的优先级
+	 *
+	 * @return 优先级，队列为空时返回null
+	 */
+	synchronized LoadPriority highest() {
+		for (var i = tiers.length - 1; i >= 0; --i) {
+			if (!tiers[i].isEmpty())
+				return PRIORITIES[i];
+		}
+		return null;
+	}
+
+	/**
+	 * 获取队列中所有未过期请求的纹理编号
+	 *
+	 * @return 升序排列的纹理编号，可能有重复
+	 */
+	synchronized int[] pending() {
+		var now = System.nanoTime();
+		var count = 0;
+		for (var tier : tiers) {
+			count += tier.size();
+		}
+		var ret = new int[count];
+		count = 0;
+		for (var tier : tiers) {
+			for (var entry : tier) {
+				if (entry.deadline == 0 || entry.deadline - now >= 0)
+					ret[count++] = entry.no;
+			}
+		}
+		ret = Arrays.copyOf(ret, count);
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	/** @return 过期丢弃的请求数量 */
+	synchronized long expired() {
+		return expired;
+	}
+}
@@ -0,0 +1,41 @@
+package com.github.jootnet.m2.core.image;
+
+/**
+ * 纹理加载调度器
+ * <br>
+ * 以少量线程执行所有图集的{@link TextureLoadTask}，线程数不随打开的图集数量增长
+ */
+public interface TextureLoadScheduler {
+
+	/**
+	 * 提交任务，任务将尽快被执行
+	 *
+	 * @param task 加载任务
+	 */
+	void submit(TextureLoadTask task);
+
+	/**
+	 * 唤醒任务
+	 * <br>
+	 * 处于等待中的任务立即进入就绪状态；正在执行的任务在本步结束后立即再次执行
+	 *
+	 * @param task 加载任务
+	 */
+	void wakeup(TextureLoadTask task);
+
+	/**
+	 * 移除任务，正在执行的步骤不受影响
+	 *
+	 * @param task 加载任务
+	 */
+	void remove(TextureLoadTask task);
+
+	/**
+	 * 获取所有图集共享的默认调度器
+	 *
+	 * @return 默认调度器
+	 */
+	static TextureLoadScheduler getDefault() {
+		return SharedTextureLoadScheduler.DEFAULT;
+	}
+}
@@ -0,0 +1,29 @@
+package com.github.jootnet.m2.core.image;
+
+/**
+ * 纹理加载任务
+ * <br>
+ * 由{@link TextureLoadScheduler}调度，每次执行一小步（如加载一块纹理数据）后立即返回，以便调度器在多个图集间轮转
+ * <br>
+ * 同一个任务不会被多个线程同时执行
+ */
+public interface TextureLoadTask {
+
+	/**
+	 * 执行一步加载
+	 *
+	 * @return 距离下一次执行的毫秒数；0表示立即再次执行；小于0表示任务已结束
+	 */
+	long runStep();
+
+	/**
+	 * 任务优先级，数值越大越优先被调度
+	 * <br>
+	 * 调度器在任务入队时读取该值
+	 *
+	 * @return 优先级
+	 */
+	default int priority() {
+		return 0;
+	}
+}
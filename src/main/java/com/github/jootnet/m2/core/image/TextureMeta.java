@@ -0,0 +1,111 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+
+/**
+ * 图集纹理元数据
+ * <br>
+ * 只读取每张纹理的16字节头部（wzp读取索引），不解压色彩数据，用于服务端工具以及渲染时的裁剪和点击判断
+ * <br>
+ * 所有字段按纹理编号存放在基本类型数组中，每张纹理约占14字节
+ * <br>
+ * 对象创建后不再修改，可以被多个线程同时读取
+ */
+public final class TextureMeta {
+	/** 空纹理的色彩位数标记 */
+	static final byte EMPTY = -1;
+
+	private final byte[] colorBit;
+	private final boolean[] compressed;
+	private final short[] width;
+	private final short[] height;
+	private final short[] offsetX;
+	private final short[] offsetY;
+	private final int[] dataLen;
+
+	TextureMeta(int imageCount) {
+		colorBit = new byte[imageCount];
+		compressed = new boolean[imageCount];
+		width = new short[imageCount];
+		height = new short[imageCount];
+		offsetX = new short[imageCount];
+		offsetY = new short[imageCount];
+		dataLen = new int[imageCount];
+	}
+
+	/**
+	 * 扫描图集的元数据
+	 * <br>
+	 * 按{@link ImageLibrary#open(String)}的顺序查找数据文件，wzp从索引读取，wzl和wil读取每张纹理的头部
+	 *
+	 * @param wzxFn 图集的索引文件路径
+	 * @return 元数据
+	 * @throws IOException 文件无法打开或数据损坏
+	 */
+	public static TextureMeta scan(String wzxFn) throws IOException {
+		try (var library = FrameSource.open(wzxFn)) {
+			return library.meta();
+		}
+	}
+
+	/** 记录一张纹理的头部 */
+	void set(int no, byte colorBit, boolean compressed, short width, short height, short offsetX, short offsetY, int dataLen) {
+		this.colorBit[no] = colorBit;
+		this.compressed[no] = compressed;
+		this.width[no] = width;
+		this.height[no] = height;
+		this.offsetX[no] = offsetX;
+		this.offsetY[no] = offsetY;
+		this.dataLen[no] = dataLen;
+	}
+
+	/** 标记纹理为空 */
+	void setEmpty(int no) {
+		colorBit[no] = EMPTY;
+	}
+
+	/** @return 库内图片总数 */
+	public int getImageCount() {
+		return colorBit.length;
+	}
+
+	/** @return 纹理是否为空 */
+	public boolean isEmpty(int no) {
+		return colorBit[no] == EMPTY;
+	}
+
+	/** @return 色彩位数标记，5表示16位，其他为8位；空纹理返回-1 */
+	public int colorBit(int no) {
+		return colorBit[no];
+	}
+
+	/** @return 色彩数据是否压缩 */
+	public boolean isCompressed(int no) {
+		return compressed[no];
+	}
+
+	/** @return 像素宽度，空纹理为0 */
+	public int width(int no) {
+		return width[no];
+	}
+
+	/** @return 像素高度，空纹理为0 */
+	public int height(int no) {
+		return height[no];
+	}
+
+	/** @return 绘制横向像素偏移 */
+	public int offsetX(int no) {
+		return offsetX[no];
+	}
+
+	/** @return 绘制纵向像素偏移 */
+	public int offsetY(int no) {
+		return offsetY[no];
+	}
+
+	/** @return 色彩数据在文件中的字节数（不含头部），空纹理为0 */
+	public int dataLength(int no) {
+		return dataLen[no];
+	}
+}
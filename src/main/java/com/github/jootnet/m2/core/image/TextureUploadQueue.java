@@ -0,0 +1,150 @@
+package com.github.jootnet.m2.core.image;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 纹理上传队列
+ * <br>
+ * 加载线程解码完毕的纹理放入队列，渲染线程每帧调用{@link #drain(long, long, UploadHandler)}按字节数和时间预算取出并上传到显存，
+ * 加载期间的上传量被均摊到各帧，帧时间保持平稳
+ * <br>
+ * 无锁的多生产者单消费者环形队列：多个图集（或多个调度线程）可以同时放入，只能有一个线程取出
+ * <br>
+ * 每个槽位带有序号，生产者通过CAS抢占写入位置，写完后发布序号；消费者按序号判断槽位是否可读
+ */
+public final class TextureUploadQueue {
+
+	private static final class Upload {
+		final String fno;
+		final int no;
+		final Texture tex;
+		final long size;
+
+		Upload(String fno, int no, Texture tex) {
+			this.fno = fno;
+			this.no = no;
+			this.tex = tex;
+			this.size = tex.byteSize();
+		}
+	}
+
+	/** 容量，2的幂 */
+	private final int capacity;
+	private final int mask;
+	/** 槽位序号：等于写入位置表示可写，等于写入位置+1表示可读 */
+	private final AtomicLongArray sequences;
+	private final AtomicReferenceArray<Upload> slots;
+	/** 下一个写入位置 */
+	private final AtomicLong tail = new AtomicLong();
+	/** 下一个读取位置，只由消费者修改 */
+	private volatile long head;
+	/** 队列中纹理像素的总字节数 */
+	private final AtomicLong pendingBytes = new AtomicLong();
+
+	/**
+	 * 创建上传队列
+	 *
+	 * @param capacity 最多缓存的纹理数量，向上取整到2的幂
+	 */
+	public TextureUploadQueue(int capacity) {
+		this.capacity = capacity <= 1 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		mask = this.capacity - 1;
+		sequences = new AtomicLongArray(this.capacity);
+		slots = new AtomicReferenceArray<>(this.capacity);
+		for (var i = 0; i < this.capacity; ++i) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * 放入纹理，可以被多个线程同时调用
+	 *
+	 * @param fno 文件编号
+	 * @param no  纹理编号
+	 * @param tex 纹理对象
+	 * @return 队列已满时返回false
+	 */
+	public boolean offer(String fno, int no, Texture tex) {
+		var pos = tail.get();
+		while (true) {
+			var idx = (int) pos & mask;
+			var diff = sequences.get(idx) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					var upload = new Upload(fno, no, tex);
+					pendingBytes.addAndGet(upload.size);
+					slots.lazySet(idx, upload);
+					sequences.lazySet(idx, pos + 1); // 发布
+					return true;
+				}
+				pos = tail.get();
+			} else if (diff < 0) {
+				return false; // 消费者尚未取走一圈之前的纹理
+			} else {
+				pos = tail.get(); // 其他生产者已占用该位置
+			}
+		}
+	}
+
+	/**
+	 * 按预算取出纹理并交给上传函数，只能由渲染线程调用
+	 * <br>
+	 * 至少取出一张纹理（队列不为空时），之后累计字节数或耗时超出预算即停止，剩余的纹理留到下一帧
+	 *
+	 * @param maxBytes 本次最多上传的像素字节数
+	 * @param maxNanos 本次最多占用的时间（纳秒），包括上传函数的耗时
+	 * @param handler  上传函数
+	 * @return 取出的纹理数量
+	 */
+	public int drain(long maxBytes, long maxNanos, UploadHandler handler) {
+		var begin = System.nanoTime();
+		var head = this.head;
+		var bytes = 0L;
+		var count = 0;
+		while (true) {
+			var idx = (int) head & mask;
+			if (sequences.get(idx) != head + 1)
+				break; // 队列为空，或生产者尚未写完
+			var upload = slots.get(idx);
+			if (count > 0 && (bytes + upload.size > maxBytes || System.nanoTime() - begin >= maxNanos))
+				break;
+			slots.lazySet(idx, null);
+			sequences.lazySet(idx, head + capacity); // 槽位交还给生产者
+			this.head = ++head;
+			pendingBytes.addAndGet(-upload.size);
+			handler.upload(upload.fno, upload.no, upload.tex);
+			bytes += upload.size;
+			count++;
+		}
+		return count;
+	}
+
+	/** @return 队列中的纹理数量（近似值） */
+	public int size() {
+		return (int) Math.max(0, tail.get() - head);
+	}
+
+	/** @return 队列中纹理像素的总字节数（近似值） */
+	public long pendingBytes() {
+		return pendingBytes.get();
+	}
+
+	/** @return 容量 */
+	public int capacity() {
+		return capacity;
+	}
+
+	@FunctionalInterface
+	public interface UploadHandler {
+		/**
+		 * 在渲染线程上传一张纹理
+		 *
+		 * @param fno 文件编号
+		 * @param no  纹理编号
+		 * @param tex 纹理对象
+		 */
+		void upload(String fno, int no, Texture tex);
+	}
+}
@@ -0,0 +1,249 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.github.jootnet.m2.core.SDK;
+
+/**
+ * WIL文件随机读取类
+ * <br>
+ * wix/wil是传奇客户端原始的图集格式
+ * <br>
+ * wix文件0x2C处是一个int，为纹理总数（n），之后是n个int型的纹理数据偏移；部分版本在0x30处多一个int，偏移从0x34开始
+ * <br>
+ * wil文件0x2C处同样是纹理总数，0x30处是颜色数（256为8位调色板，65536为16位RGB565），之后是调色板；
+ * 8位纹理使用{@link SDK#palletes}，不读取文件中的调色板
+ * <br>  每个纹理由宽度、高度、X偏移、Y偏移（各为short）和未压缩的色彩数据组成，部分版本在偏移之后多4个字节
+ * <br>  色彩数据为从下到上的bmp行，每行末尾填充到4字节对齐
+ * <br>
+ * {@link #get(int)}是同步调用，可以被多个线程同时调用
+ */
+public final class WILReader implements FrameSource {
+	/** 颜色数：16位 */
+	private static final int COLOR_COUNT_16 = 65536;
+	/** 小于该值的偏移表示纹理为空 */
+	private static final int MIN_OFFSET = 56;
+
+	/** 库内图片总数 */
+	private final int imageCount;
+	/** 纹理数据起始偏移，最后一个元素为wil文件长度 */
+	private final int[] offsetList;
+	/** 每张纹理数据（含头部）的长度 */
+	private final int[] dataLengths;
+	/** 色彩位数标记，与wzl相同，5表示16位 */
+	private final byte colorBit;
+	/** 每张纹理的头部字节数，8或12；0表示按每张纹理的数据长度判断 */
+	private final int headerSize;
+	/** wil映射区域 */
+	private volatile MappedByteBuffer wil;
+
+	/**
+	 * 映射wix和wil文件
+	 *
+	 * @param wixFn wix文件路径
+	 * @param wilFn wil文件路径
+	 * @throws IOException 文件无法打开、映射或颜色数不支持
+	 */
+	public WILReader(String wixFn, String wilFn) throws IOException {
+		this(index(wixFn), null, map(wilFn), wilFn);
+	}
+
+	/**
+	 * 使用已读取的索引创建
+	 * <br>
+	 * 微端模式下wil尚未下载，只用于切分和解码下载的纹理数据，{@link #frame(int)}不可用；
+	 * 纹理头部长度无法预先判断，按每张纹理的数据长度判断
+	 *
+	 * @param offsetList 纹理数据起始偏移，见{@link #offsets(ByteBuffer, String)}；wil为null时最后一个元素需为wil文件长度
+	 * @param header     wil文件头部，wil为null时使用，至少包含颜色数
+	 * @param wil        wil映射区域，可以为null
+	 * @param wilFn      wil文件路径或网络地址，用于错误信息
+	 * @throws IOException 颜色数不支持
+	 */
+	WILReader(int[] offsetList, ByteBuffer header, MappedByteBuffer wil, String wilFn) throws IOException {
+		imageCount = offsetList.length - 1;
+		this.offsetList = offsetList;
+		if (wil != null) {
+			offsetList[imageCount] = wil.capacity();
+			header = wil;
+		}
+		this.wil = wil;
+		header = header.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (header.limit() < MIN_OFFSET)
+			throw new IOException(wilFn + " is not a wil file");
+		var colorCount = header.getInt(48);
+		if (colorCount != 256 && colorCount != COLOR_COUNT_16)
+			throw new IOException(wilFn + " unsupported color count " + colorCount);
+		colorBit = (byte) (colorCount == COLOR_COUNT_16 ? 5 : 3);
+		dataLengths = LoadProgress.dataLengths(offsetList, imageCount);
+		headerSize = wil != null ? detectHeaderSize(header) : 0;
+	}
+
+	/**
+	 * 解析wix文件内容
+	 *
+	 * @param wix   小端字节序的wix文件内容
+	 * @param wixFn wix文件路径或网络地址，用于错误信息
+	 * @return 纹理数据起始偏移，空纹理为0；多出的最后一个元素留给wil文件长度
+	 * @throws IOException 索引不完整
+	 */
+	static int[] offsets(ByteBuffer wix, String wixFn) throws IOException {
+		if (wix.limit() < 48)
+			throw new IOException(wixFn + " index truncated");
+		var imageCount = wix.getInt(44);
+		if (imageCount < 0 || 48 + (long) imageCount * 4 > wix.limit())
+			throw new IOException(wixFn + " index truncated");
+		var base = wix.limit() >= 52 + imageCount * 4 ? 52 : 48;
+		var offsetList = new int[imageCount + 1];
+		for (var i = 0; i < imageCount; ++i) {
+			offsetList[i] = wix.getInt(base + i * 4);
+			if (offsetList[i] < MIN_OFFSET) offsetList[i] = 0;
+		}
+		return offsetList;
+	}
+
+	private static int[] index(String wixFn) throws IOException {
+		try (var wixChannel = FileChannel.open(Paths.get(wixFn), StandardOpenOption.READ)) {
+			return offsets(wixChannel.map(FileChannel.MapMode.READ_ONLY, 0, wixChannel.size()).order(ByteOrder.LITTLE_ENDIAN), wixFn);
+		}
+	}
+
+	private static MappedByteBuffer map(String wilFn) throws IOException {
+		try (var wilChannel = FileChannel.open(Paths.get(wilFn), StandardOpenOption.READ)) {
+			// 索引中的偏移为int，更大的文件无法定位纹理
+			if (wilChannel.size() > Integer.MAX_VALUE)
+				throw new IOException(wilFn + " is larger than 2GB");
+			return wilChannel.map(FileChannel.MapMode.READ_ONLY, 0, wilChannel.size());
+		}
+	}
+
+	/** 根据第一张完整纹理的数据长度判断纹理头部是8字节还是12字节 */
+	private int detectHeaderSize(ByteBuffer buffer) {
+		for (var no = 0; no < imageCount; ++no) {
+			var pos = offsetList[no];
+			if (pos == 0 || dataLengths[no] < 8) continue;
+			var pixelsLen = pixelsLength(buffer.getShort(pos), buffer.getShort(pos + 2));
+			if (dataLengths[no] == 8 + pixelsLen) return 8;
+			if (dataLengths[no] == 12 + pixelsLen) return 12;
+		}
+		return 8;
+	}
+
+	/** 含填充的色彩数据字节数 */
+	private int pixelsLength(int width, int height) {
+		return SDK.widthBytes((colorBit == 5 ? 16 : 8) * width) * height;
+	}
+
+	@Override
+	public int getImageCount() {
+		return imageCount;
+	}
+
+	@Override
+	public boolean isEmpty(int no) {
+		return offsetList[no] == 0;
+	}
+
+	/**
+	 * 获取纹理数据（含头部）在wil文件中的字节数
+	 *
+	 * @param no 纹理编号，从0开始
+	 * @return 纹理数据字节数，空纹理返回0
+	 */
+	@Override
+	public int dataLength(int no) {
+		return dataLengths[no];
+	}
+
+	/**
+	 * 读取所有纹理的元数据
+	 * <br>
+	 * 只读取每张纹理的头部；wil不压缩，数据长度为含行填充的色彩数据长度
+	 *
+	 * @return 元数据
+	 * @throws IOException 纹理头部超出文件范围或读取器已关闭
+	 */
+	@Override
+	public TextureMeta meta() throws IOException {
+		var meta = new TextureMeta(imageCount);
+		var buffer = frame(0).clear();
+		for (var no = 0; no < imageCount; ++no) {
+			var pos = offsetList[no];
+			if (pos == 0) {
+				meta.setEmpty(no);
+				continue;
+			}
+			if (dataLengths[no] < headerSize)
+				throw new IOException("texture " + no + " header out of file");
+			var width = buffer.getShort(pos);
+			var height = buffer.getShort(pos + 2);
+			meta.set(no, colorBit, false, width, height, buffer.getShort(pos + 4), buffer.getShort(pos + 6), pixelsLength(width, height));
+		}
+		return meta;
+	}
+
+	@Override
+	public Texture get(int no) throws IOException {
+		return get(no, TextureDecoder.RGBA);
+	}
+
+	@Override
+	public Texture get(int no, boolean indexed) throws IOException {
+		return get(no, indexed ? TextureDecoder.INDEXED : TextureDecoder.RGBA);
+	}
+
+	Texture get(int no, TextureDecoder decoder) throws IOException {
+		if (offsetList[no] == 0) return Texture.EMPTY;
+		var tex = decode(no, frame(no), decoder);
+		if (tex == null)
+			throw new IOException("texture " + no + " truncated");
+		return tex;
+	}
+
+	/**
+	 * 获取纹理数据（含头部）所在的映射区域
+	 * <br>
+	 * 返回的缓冲区为独立视图，position和limit为纹理数据的范围
+	 */
+	@Override
+	public ByteBuffer frame(int no) throws IOException {
+		var buffer = wil;
+		if (buffer == null)
+			throw new IOException("reader closed");
+		var view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		view.limit(offsetList[no] + dataLengths[no]).position(offsetList[no]);
+		return view;
+	}
+
+	@Override
+	public Texture decode(int no, ByteBuffer frame, TextureDecoder decoder) throws IOException {
+		var pos = frame.position();
+		if (frame.remaining() < 8)
+			return null;
+		var width = frame.getShort(pos);
+		var height = frame.getShort(pos + 2);
+		var pixelsLen = pixelsLength(width, height);
+		var headerSize = this.headerSize != 0 ? this.headerSize : frame.remaining() == 12 + pixelsLen ? 12 : 8;
+		if (frame.remaining() < headerSize + pixelsLen)
+			return null;
+		// wil的填充在每行末尾，从第一行填充之前开始读取即与wzl每行开头填充的布局相同
+		var skip = SDK.skipBytes(colorBit == 5 ? 16 : 8, width);
+		return decoder.texture(colorBit, frame, pos + headerSize - skip, width, height, frame.getShort(pos + 4), frame.getShort(pos + 6));
+	}
+
+	@Override
+	public long hash(int no, ByteBuffer frame, long seed) {
+		return XXHash64.hash(frame, seed * 31 + colorBit);
+	}
+
+	@Override
+	public void close() {
+		wil = null;
+	}
+}
@@ -1,19 +1,29 @@
 package com.github.jootnet.m2.core.image;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.Semaphore;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 import com.github.jootnet.m2.core.SDK;
 
@@ -29,65 +39,149 @@ import com.github.jootnet.m2.core.SDK;
  * <br>  然后是根据wzx中的偏移来解析每一张纹理，如果偏移是0，则表示纹理为空
  * <br>  每个纹理数据由16个固定头部和变长色彩数据组成
  * <br>  色彩数据可能使用zlib压缩过
+ * <br>
+ * 本地文件通过{@link WZLReader}映射读取，本类在其之上按优先级顺序加载并通过{@link TextureConsumer}向外推送
+ * <br>
+ * wzx同级目录存在由{@link WZPConverter}从当前wzx/wzl生成的同名wzp文件时，优先通过{@link WZPReader}从wzp读取；
+ * 只有wix/wil文件时通过{@link WILReader}读取，加载调度、缓存和并行解码对所有格式相同（见{@link ImageLibrary}）
+ * <br>
+ * 微端模式下载的数据同样按格式切分和解码（见{@link FrameSource#remote(String, int[], ByteBuffer, String)}），
+ * 传入wix/wil路径时从微端下载wix/wil
+ * <br>
+ * 本类是一个{@link TextureLoadTask}，由{@link TextureLoadScheduler}调度执行，不单独占用线程
  * 
  * @author LinXing
  *
  */
-public final class WZL extends Thread {
+public final class WZL implements TextureLoadTask {
+	/** 上传队列已满时再次尝试放入的间隔（毫秒） */
+	private static final long UPLOAD_RETRY_MILLIS = 4;
+
 	/** 库内图片总数 */
 	private int imageCount;
-	/** 纹理数据起始偏移 */
+	/** 微端模式下纹理数据在数据文件中的起始偏移，空纹理为0 */
 	private int[] offsetList;
-	/** 纹理加载标志 */
-	private volatile boolean[] loadedFlag;
+	/** 纹理加载进度 */
+	private volatile LoadProgress progress;
+	/** 微端模式下数据已在本地下载文件中的纹理 */
+	private BitSet downloaded;
 	/** 纹理消费者 */
 	private TextureConsumer textureConsumer;
+	/** 纹理批量消费者 */
+	private TextureBatchConsumer batchConsumer;
+	/** 本次加载中尚未推送给批量消费者的纹理 */
+	private int[] batchNos = new int[16];
+	private Texture[] batchTexs = new Texture[16];
+	private int batchCount;
+	/** 尚未推送的连续空纹理区间[emptyFrom, emptyTo) */
+	private int emptyFrom, emptyTo;
 	/** 库加载完毕事件 */
 	private LoadCompletedEventHandler loadCompletedEventHandler;
 	/** 是否被取消 */
 	private volatile boolean cancel;
-	/** wzx本地路径 */
-	private String wzxFn;
-	/** wzx网络路径 */
-	private String wzxUrl;
-	/** wzl本地路径 */
-	private String wzlFn;
-	/** wzl网络路径 */
-	private String wzlUrl;
+	/** 索引文件（wzx或wix）本地路径 */
+	private String indexFn;
+	/** 索引文件网络路径 */
+	private String indexUrl;
+	/** 数据文件（wzl或wil）本地路径 */
+	private String dataFn;
+	/** 数据文件网络路径 */
+	private String dataUrl;
 	/** 优先加载的纹理编号 */
-	private Queue<Integer> seizes;
-	/** 后台加载线程是否启动 */
+	private TextureLoadQueue seizes;
+	/** 是否已提交到调度器 */
 	private boolean started;
 	/** 文件名 */
 	private String fno;
-	/** 加载信号量 */
-	private Semaphore loadSemaphore;
+	/** 加载调度器 */
+	private TextureLoadScheduler scheduler = TextureLoadScheduler.getDefault();
 	/** 自动加载间隔 */
 	private int autoLoadDelyInMilli = 5 * 1000; // 默认5秒
+	/** 纹理数据来源：本地文件读取器，微端模式下只用于切分和解码下载的数据 */
+	private FrameSource reader;
 	/** 单次加载最大数据量（从磁盘或网络下载） */
 	private int maxLoadSizePer = 256 * 1024; // 默认256K
+	/** 后台顺序加载每秒最多读取的字节数 */
+	private long backgroundBytesPerSecond = Long.MAX_VALUE;
+	/** 后台顺序加载最多占用一个线程的时间比例 */
+	private double backgroundCpuFraction = 1;
+	/** 下一次后台顺序加载的最早时间（System.nanoTime） */
+	private long backgroundNotBefore;
+	/** 纹理解码方式 */
+	private TextureDecoder decoder = new TextureDecoder();
+	/** 纹理解码线程池，为null时在加载线程上逐个解码 */
+	private ExecutorService decodePool = ForkJoinPool.commonPool();
+	/** 并行解码时是否按纹理编号顺序推送 */
+	private boolean orderedDelivery;
+	/** 已解码纹理缓存 */
+	private TextureCache cache;
+	/** 已解码纹理磁盘缓存 */
+	private TextureDiskCache diskCache;
+	/** 当前图集的磁盘缓存文件 */
+	private TextureDiskCache.Library diskLibrary;
+	/** 是否裁掉纹理四周的透明边框 */
+	private boolean trim;
+	/** 裁剪透明边框节省的像素字节数 */
+	private final AtomicLong trimmedBytes = new AtomicLong();
+	/** 重复纹理合并，为null表示不合并 */
+	private TextureDedup dedup;
+	/** 渲染线程上传队列，为null表示不使用 */
+	private TextureUploadQueue uploadQueue;
+	/** 上传队列已满时尚未放入的纹理，放入后才标记加载完毕 */
+	private final ArrayDeque<PendingUpload> pendingUploads = new ArrayDeque<>();
+	/** 透明度位图存储，为null表示不生成 */
+	private AlphaMaskStore alphaMasks;
+	/** 缓存淘汰时重置加载标志 */
+	private TextureCache.EvictionListener evictionListener;
+	/** 是否已触发过加载完毕事件 */
+	private boolean completedNotified;
+	/** 通过{@link #request(int)}等待中的纹理，访问时需要同步 */
+	private final Map<Integer, Request> requests = new HashMap<>();
+	/** 是否为微端模式 */
+	private boolean httpMode;
+	/** 索引等初始化工作是否完成 */
+	private boolean initialized;
+	/** 上一步是否已经在无优先加载纹理的情况下等待过 */
+	private boolean idleWaited;
+	/** 微端模式下数据文件长度 */
+	private long fLen;
+	/** 微端模式下索引文件内容的CRC32 */
+	private long indexCrc;
+	/** 离线继续下载时，后台确认服务器上的索引和数据文件是否未变化；已确认或从服务器初始化时为null */
+	private CompletableFuture<Boolean> revalidation;
+	/** 微端模式下载中的数据文件，可在下次启动时继续下载 */
+	private PartialDownload partial;
+	/** 微端下载 */
+	private MicroClientTransport transport = MicroClientTransport.getDefault();
+	/** 微端模式下单次加载同时发起的范围请求数 */
+	private int httpParallelism = 4;
+	/** 微端请求失败后的重试策略 */
+	private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+	/** 微端请求连续失败次数 */
+	private int httpFailures;
+	/** 本次微端下载中第一个失败的请求 */
+	private Throwable httpError;
 
 	/**
 	 * 使用wzx文件路径和微端基址初始化WZL对象 <br>
-	 * wzx/wzl文件不存在时切换为微端模式，从网络下载
+	 * 本地没有任何格式的图集文件时切换为微端模式，从网络下载；文件扩展名为wix或wil时下载wix/wil，否则下载wzx/wzl
 	 * 
-	 * @param wzxFn     wzx文件路径
+	 * @param wzxFn     wzx（或wix）文件路径
 	 * @param wdBaseUrl 微端基址
 	 */
 	public WZL(String wzxFn, String wdBaseUrl) {
-		setDaemon(true);
-		setName("WZL-" + hashCode());
-		seizes = new ConcurrentLinkedDeque<>();
-		loadSemaphore = new Semaphore(0);
+		seizes = new TextureLoadQueue();
 
 		if (!wdBaseUrl.endsWith("/")) wdBaseUrl += "/";
 		fno = SDK.changeFileExtension(new File(wzxFn).getName(), "");
-		this.wzxFn = SDK.repairFileName(wzxFn);
-		wzxUrl = wdBaseUrl + "data/"
-				+ new File(wzxFn).getName().toLowerCase();
-		wzlFn = wzxFn.substring(0, wzxFn.lastIndexOf('.')) + ".wzl";
-		wzlUrl = wdBaseUrl + "data/"
-				+ new File(wzxFn.substring(0, wzxFn.lastIndexOf('.')) + ".wzl").getName().toLowerCase();
+		var wil = FrameSource.isWil(wzxFn);
+		var indexFn = SDK.changeFileExtension(wzxFn, wil ? "wix" : "wzx");
+		this.indexFn = SDK.repairFileName(indexFn);
+		indexUrl = wdBaseUrl + "data/"
+				+ new File(indexFn).getName().toLowerCase();
+		dataFn = SDK.changeFileExtension(wzxFn, wil ? "wil" : "wzl");
+		dataUrl = wdBaseUrl + "data/"
+				+ new File(dataFn).getName().toLowerCase();
 	}
 
 	/**
@@ -101,10 +195,24 @@ public final class WZL extends Thread {
 		return this;
 	}
 
+	/**
+	 * 设置纹理批量加载完成回调 <br>
+	 * 每个加载步骤解码的纹理合并为一次回调，连续编号的空纹理合并为一个区间，减少稀疏图集和大图集逐张回调的开销 <br>
+	 * 可以与{@link #onTextureLoaded(TextureConsumer)}同时使用
+	 * 
+	 * @param consumer 事件处理函数
+	 * @return 当前对象
+	 */
+	public WZL onTexturesLoaded(TextureBatchConsumer consumer) {
+		batchConsumer = consumer;
+		return this;
+	}
+
 	/**
 	 * 当前图集所有纹理都加载完毕后回调 <br>
 	 * 对从网络加载也有效 <br>
-	 * 如果是从网络加载(即微端模式)，则此时应该从临时文件把wzl拷贝到微端目录了
+	 * 如果是从网络加载(即微端模式)，则此时下载中的文件已经改名为wzl（或wil）；
+	 * 离线继续下载且无法确认服务器上的文件未变化时不改名，下次启动时再确认
 	 * 
 	 * @param eventHandler 事件处理函数
 	 * @return 当前对象
@@ -114,13 +222,347 @@ public final class WZL extends Thread {
 		return this;
 	}
 
+	/**
+	 * 设置加载调度器 <br>
+	 * 需要在第一次调用{@link #load(int...)}之前设置，默认使用{@link TextureLoadScheduler#getDefault()}
+	 * 
+	 * @param scheduler 加载调度器
+	 * @return 当前对象
+	 */
+	public WZL scheduler(TextureLoadScheduler scheduler) {
+		this.scheduler = scheduler;
+		return this;
+	}
+
+	/**
+	 * 设置纹理解码线程池 <br>
+	 * 每次从磁盘或网络读取的一块数据会被切分为单张纹理，解压和色彩转换在该线程池上并行执行 <br>
+	 * 解码结果仍在加载线程上推送给{@link TextureConsumer} <br>
+	 * 默认使用{@link ForkJoinPool#commonPool()}，传入null则在加载线程上逐个解码
+	 * 
+	 * @param pool 解码线程池
+	 * @return 当前对象
+	 */
+	public WZL parallelDecode(ExecutorService pool) {
+		decodePool = pool;
+		return this;
+	}
+
+	/**
+	 * 设置并行解码时是否按纹理编号顺序推送 <br>
+	 * 默认关闭，即哪张纹理先解码完毕就先推送
+	 * 
+	 * @param ordered 是否按顺序推送
+	 * @return 当前对象
+	 */
+	public WZL orderedDelivery(boolean ordered) {
+		orderedDelivery = ordered;
+		return this;
+	}
+
+	/**
+	 * 设置微端下载对象 <br>
+	 * 默认使用{@link MicroClientTransport#getDefault()}，所有图集共享连接和同时请求数上限
+	 * 
+	 * @param transport 微端下载对象
+	 * @return 当前对象
+	 */
+	public WZL transport(MicroClientTransport transport) {
+		this.transport = transport;
+		return this;
+	}
+
+	/**
+	 * 设置微端模式下单次加载同时发起的范围请求数 <br>
+	 * 第一个请求从本次要加载的纹理开始，其余请求依次从之后尚未加载的纹理开始 <br>
+	 * 每个请求的大小根据测得的吞吐量和往返时延自动调整，见{@link MicroClientTransport#chunkSize(int)} <br>
+	 * 实际同时进行的请求数还受{@link MicroClientTransport}的上限约束，默认为4
+	 * 
+	 * @param parallelism 请求数，至少为1
+	 * @return 当前对象
+	 */
+	public WZL httpParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism < 1");
+		httpParallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * 设置微端请求失败后的重试策略 <br>
+	 * 索引、文件长度或纹理数据下载失败后，图集按该策略等待一段时间再重试，等待期间不占用加载线程 <br>
+	 * 主机熔断时等到{@link MicroClientTransport}允许下一次请求为止，默认为{@link RetryPolicy#DEFAULT}
+	 * 
+	 * @param policy 重试策略
+	 * @return 当前对象
+	 */
+	public WZL retryPolicy(RetryPolicy policy) {
+		retryPolicy = policy;
+		return this;
+	}
+
+	/**
+	 * 设置8位纹理是否保留调色板索引 <br>
+	 * 开启后8位纹理的{@link Texture#pixels}为每像素1字节的调色板索引，{@link Texture#palette}指向共享调色板 <br>
+	 * 占用内存为RGBA的四分之一，需要时通过{@link Texture#toRGBA()}或{@link Texture#expandTo(byte[], int)}展开 <br>
+	 * 16位纹理不受影响，需要在第一次调用{@link #load(int...)}之前设置
+	 * 
+	 * @param indexed 是否保留调色板索引
+	 * @return 当前对象
+	 */
+	public WZL indexedColor(boolean indexed) {
+		decoder.indexed = indexed;
+		return this;
+	}
+
+	/**
+	 * 设置RGBA像素写入堆外直接缓冲区 <br>
+	 * 开启后解码结果直接写入从池中获取的缓冲区，{@link Texture#pixels}为null，通过{@link Texture#getBuffer()}获取像素，
+	 * 渲染器可以直接上传而无需再拷贝 <br>
+	 * 纹理不再使用时需要调用{@link Texture#release()}归还缓冲区；{@link TextureCache}淘汰纹理时不会自动释放 <br>
+	 * 开启{@link #indexedColor(boolean)}时8位纹理仍保留在堆内，需要在第一次调用{@link #load(int...)}之前设置
+	 * 
+	 * @param pool 缓冲区池，为null表示像素存放在堆内
+	 * @return 当前对象
+	 */
+	public WZL directPixels(DirectBufferPool pool) {
+		decoder.directPool = pool;
+		return this;
+	}
+
+	/**
+	 * 设置是否裁掉纹理四周的透明边框 <br>
+	 * 开启后每张纹理解码后裁剪到不透明像素的包围矩形，{@link Texture#offsetX}和{@link Texture#offsetY}随之调整，
+	 * 按偏移绘制的结果不变，特效和人物等留白较多的纹理可以节省大量内存和填充率 <br>
+	 * 裁剪后纹理的宽高不再是原始尺寸；需要在第一次调用{@link #load(int...)}之前设置
+	 * 
+	 * @param trim 是否裁剪
+	 * @return 当前对象
+	 * @see #trimmedBytes()
+	 */
+	public WZL trimTransparent(boolean trim) {
+		this.trim = trim;
+		return this;
+	}
+
+	/**
+	 * 设置重复纹理合并 <br>
+	 * 解码前计算纹理数据的哈希，与其他图集（或本图集）中数据相同的纹理共享同一个{@link Texture}对象并省去解码 <br>
+	 * 共享的纹理对象不得修改；开启{@link #directPixels(DirectBufferPool)}时不合并。可以被多个图集共享
+	 * 
+	 * @param dedup 重复纹理合并，为null表示不合并
+	 * @return 当前对象
+	 */
+	public WZL dedup(TextureDedup dedup) {
+		this.dedup = dedup;
+		return this;
+	}
+
+	/**
+	 * 设置已解码纹理缓存 <br>
+	 * 解码完毕的纹理会放入缓存；纹理被淘汰后其加载标志被重置，再次{@link #load(int...)}时会重新加载 <br>
+	 * 缓存可以被多个图集共享，图集只在加载期间在缓存上注册淘汰监听
+	 * 
+	 * @param cache 纹理缓存，为null表示不使用缓存
+	 * @return 当前对象
+	 */
+	public synchronized WZL cache(TextureCache cache) {
+		unlistenEviction();
+		this.cache = cache;
+		if (started)
+			listenEviction();
+		return this;
+	}
+
+	/**
+	 * 在缓存上注册淘汰监听
+	 * <br>
+	 * 只在图集提交到调度器期间注册，加载完毕或取消时移除，共享的缓存不会一直引用已不再加载的图集
+	 */
+	private synchronized void listenEviction() {
+		if (cache == null || evictionListener != null) return;
+		evictionListener = (fno, no, tex) -> {
+			var progress = this.progress;
+			if (this.fno.equals(fno) && progress != null && no < progress.imageCount())
+				progress.markEvicted(no); // 后台顺序加载跳过被淘汰的纹理
+		};
+		cache.addEvictionListener(evictionListener);
+	}
+
+	private synchronized void unlistenEviction() {
+		if (evictionListener == null) return;
+		cache.removeEvictionListener(evictionListener);
+		evictionListener = null;
+	}
+
+	/**
+	 * 设置已解码纹理磁盘缓存 <br>
+	 * 从本地文件加载纹理时先查找磁盘缓存，命中则直接读取解码后的像素；未命中的纹理解码后写入缓存 <br>
+	 * 不同解码选项（{@link #trimTransparent(boolean)}、{@link #indexedColor(boolean)}）的纹理分别缓存；
+	 * 图集只在加载期间打开缓存文件，加载完毕或取消后释放 <br>
+	 * 微端模式下载完成之前不使用磁盘缓存，需要在第一次调用{@link #load(int...)}之前设置
+	 * 
+	 * @param diskCache 磁盘缓存，为null表示不使用
+	 * @return 当前对象
+	 */
+	public WZL diskCache(TextureDiskCache diskCache) {
+		this.diskCache = diskCache;
+		return this;
+	}
+
+	/**
+	 * 设置透明度位图存储 <br>
+	 * 纹理解码完毕后生成每像素1位的透明度位图，用于精确的点击判断，纹理被淘汰后位图仍然保留
+	 * 
+	 * @param alphaMasks 透明度位图存储，为null表示不生成
+	 * @return 当前对象
+	 * @see AlphaMaskStore#hitTest(String, int, int, int)
+	 */
+	public WZL alphaMasks(AlphaMaskStore alphaMasks) {
+		this.alphaMasks = alphaMasks;
+		return this;
+	}
+
+	/**
+	 * 设置渲染线程上传队列 <br>
+	 * 解码完毕的非空纹理先放入队列，再标记加载完毕并回调{@link TextureConsumer}；由渲染线程通过{@link TextureUploadQueue#drain(long, long, TextureUploadQueue.UploadHandler)}
+	 * 按每帧预算取出上传，无需自行实现线程间的交接 <br>
+	 * 队列已满时图集暂停加载，不占用加载线程，之后每隔几毫秒重试放入，加载速度受上传速度限制。队列可以被多个图集共享
+	 * 
+	 * @param queue 上传队列，为null表示不使用
+	 * @return 当前对象
+	 */
+	public WZL uploadQueue(TextureUploadQueue queue) {
+		this.uploadQueue = queue;
+		return this;
+	}
+
 	/**
 	 * 停止加载 <br>
-	 * 用于中止加载，退出内部线程
+	 * 用于中止加载，从调度器中移除当前图集，所有等待中的{@link #request(int)}被取消
 	 */
 	public void cancelLoad() {
 		cancel = true;
-		loadSemaphore.release();
+		scheduler.remove(this);
+		unlistenEviction();
+		closeFile();
+		failRequests(new CancellationException("load cancelled"));
+	}
+
+	/**
+	 * 请求特定编号纹理 <br>
+	 * 纹理会被优先加载，即使之前已经加载过（未缓存时重新解码） <br>
+	 * 同一编号的多次请求共用一次加载；某个调用者取消返回的Future不影响其他调用者，所有调用者都取消后该纹理不再加载 <br>
+	 * Future在加载线程上完成，纹理同样会推送给{@link TextureConsumer}
+	 * 
+	 * @param no 纹理编号，从0开始
+	 * @return 纹理加载结果
+	 */
+	public CompletableFuture<Texture> request(int no) {
+		var ret = request0(no);
+		load();
+		return ret;
+	}
+
+	/**
+	 * 请求一段连续编号的纹理 <br>
+	 * 取消返回的Future会取消其中每一张纹理的请求
+	 * 
+	 * @param from 起始纹理编号（包含）
+	 * @param to   结束纹理编号（不包含）
+	 * @return 按编号顺序排列的纹理加载结果
+	 * @see #request(int)
+	 */
+	public CompletableFuture<Texture[]> request(int from, int to) {
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Texture>[] futures = (CompletableFuture<Texture>[]) new CompletableFuture<?>[Math.max(0, to - from)];
+		for (var no = from; no < to; ++no) {
+			futures[no - from] = request0(no);
+		}
+		load();
+		var ret = CompletableFuture.allOf(futures).thenApply(v -> {
+			var texs = new Texture[futures.length];
+			for (var i = 0; i < texs.length; ++i) {
+				texs[i] = futures[i].join();
+			}
+			return texs;
+		});
+		ret.whenComplete((texs, ex) -> {
+			if (ret.isCancelled()) {
+				for (var f : futures) {
+					f.cancel(false);
+				}
+			}
+		});
+		return ret;
+	}
+
+	private CompletableFuture<Texture> request0(int no) {
+		if (cache != null) {
+			var tex = cache.get(fno, no);
+			if (tex != null)
+				return CompletableFuture.completedFuture(tex);
+		}
+		var ret = new CompletableFuture<Texture>();
+		Request req;
+		synchronized (requests) {
+			req = requests.computeIfAbsent(no, k -> new Request());
+			req.waiters++;
+		}
+		req.result.whenComplete((tex, ex) -> {
+			if (ex != null)
+				ret.completeExceptionally(ex);
+			else
+				ret.complete(tex);
+		});
+		ret.whenComplete((tex, ex) -> {
+			if (ret.isCancelled())
+				releaseRequest(no, req);
+		});
+		seizes.offer(no, LoadPriority.Visible, 0);
+		return ret;
+	}
+
+	/** 某个调用者取消了请求，所有调用者都取消后不再加载该纹理 */
+	private void releaseRequest(int no, Request req) {
+		synchronized (requests) {
+			if (--req.waiters > 0 || requests.get(no) != req)
+				return;
+			requests.remove(no);
+			// 在锁内移除，否则可能移除之后新请求加入的优先加载
+			seizes.remove(no);
+		}
+		req.result.cancel(false);
+	}
+
+	/** 纹理是否正在被请求 */
+	private boolean requested(int no) {
+		synchronized (requests) {
+			return !requests.isEmpty() && requests.containsKey(no);
+		}
+	}
+
+	/** 以异常结束所有等待中的请求 */
+	private void failRequests(Throwable ex) {
+		List<Request> reqs;
+		synchronized (requests) {
+			reqs = new ArrayList<>(requests.values());
+			requests.clear();
+		}
+		for (var req : reqs) {
+			req.result.completeExceptionally(ex);
+		}
+	}
+
+	/** 纹理数据损坏，不再重复加载 */
+	private void broken(int no) {
+		progress.markLoaded(no);
+		Request req;
+		synchronized (requests) {
+			req = requests.remove(no);
+		}
+		if (req != null)
+			req.result.completeExceptionally(new IOException(fno + " texture " + no + " broken"));
 	}
 
 	/**
@@ -129,422 +571,971 @@ public final class WZL extends Thread {
 	 * <br>
 	 * 此函数可多次调用，以打断后台顺序加载其他纹理 <br>
 	 * 库内所有纹理加载完毕后会触发{@link LoadCompleted#op()}向外告知 <br>
-	 * 如果wzl文件来自微端，则会复制到wzx同级目录
+	 * 如果图集来自微端，则会下载到wzx同级目录
 	 * 
 	 * @param seizes 需要优先加载的纹理编号
 	 * @return 当前对象
 	 */
 	public WZL load(int... seizes) {
+		return load(LoadPriority.Visible, 0, seizes);
+	}
+
+	/**
+	 * 按优先级加载特定编号纹理 <br>
+	 * 高优先级的请求总是先被加载；超过截止时间仍未开始加载的请求会被丢弃，用于已经不再需要的纹理（如人物已经走过的场景）
+	 * 
+	 * @param priority       优先级
+	 * @param deadlineMillis 从现在起的有效时间（毫秒），0表示不过期
+	 * @param seizes         需要优先加载的纹理编号
+	 * @return 当前对象
+	 * @see #load(int...)
+	 */
+	public synchronized WZL load(LoadPriority priority, long deadlineMillis, int... seizes) {
+		var deadline = deadlineMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis) : 0;
+		if (deadline == 0 && deadlineMillis > 0) deadline = 1;
 		for (var i : seizes) {
-			this.seizes.offer(i);
+			this.seizes.offer(i, priority, deadline);
 		}
 		if (!started) {
-			start(); // 启动后台线程进行顺序加载
+			listenEviction();
+			scheduler.submit(this); // 提交到调度器进行顺序加载
 			started = true;
 		} else {
-			loadSemaphore.drainPermits();
-			loadSemaphore.release();
+			scheduler.wakeup(this);
 		}
 		return this;
 	}
 
+	/**
+	 * 设置后台顺序加载的资源预算 <br>
+	 * 没有优先加载请求时，图集会在后台顺序加载剩余纹理；该预算限制这部分加载的磁盘/网络读取速度和解码耗时，
+	 * 使其不与当前显示所需的加载争抢资源 <br>
+	 * 通过{@link #load(int...)}或{@link #request(int)}发起的加载不受限制
+	 * 
+	 * @param bytesPerSecond 每秒最多读取的字节数
+	 * @param cpuFraction    最多占用一个加载线程的时间比例，取值(0, 1]
+	 * @return 当前对象
+	 */
+	public WZL backgroundBudget(long bytesPerSecond, double cpuFraction) {
+		if (bytesPerSecond <= 0 || cpuFraction <= 0 || cpuFraction > 1)
+			throw new IllegalArgumentException("invalid background budget");
+		backgroundBytesPerSecond = bytesPerSecond;
+		backgroundCpuFraction = cpuFraction;
+		return this;
+	}
+
+	/**
+	 * 获取加载进度 <br>
+	 * 即加载过的纹理占库内纹理总数的比例，被缓存淘汰的纹理仍计为已加载
+	 * 
+	 * @return 加载进度，取值[0, 1]；索引尚未读取时为0
+	 */
+	public float progress() {
+		var progress = this.progress;
+		return progress == null ? 0 : progress.progress();
+	}
+
+	/**
+	 * 获取加载过的纹理数量
+	 * 
+	 * @return 纹理数量；索引尚未读取时为0
+	 */
+	public int loadedCount() {
+		var progress = this.progress;
+		return progress == null ? 0 : progress.loadedCount();
+	}
+
+	/**
+	 * 获取库内图片总数
+	 * 
+	 * @return 图片总数；索引尚未读取时为0
+	 */
+	public int getImageCount() {
+		var progress = this.progress;
+		return progress == null ? 0 : progress.imageCount();
+	}
+
+	/**
+	 * 获取文件编号 <br>
+	 * 即wzx文件名去掉扩展名，与{@link TextureConsumer#recv(String, int, Texture)}等回调中的文件编号相同
+	 * 
+	 * @return 文件编号
+	 */
+	public String getFno() {
+		return fno;
+	}
+
+	/**
+	 * 读取本地图集所有纹理的元数据 <br>
+	 * 只读取纹理头部，不解码像素，也不影响加载进度；微端模式下载完成之前文件不存在，会抛出异常
+	 * 
+	 * @return 元数据
+	 * @throws IOException 本地文件无法打开或数据损坏
+	 * @see TextureMeta#scan(String)
+	 */
+	public TextureMeta meta() throws IOException {
+		return TextureMeta.scan(indexFn);
+	}
+
+	/**
+	 * 获取裁剪透明边框节省的内存 <br>
+	 * 即裁剪前后像素字节数之差的累计，从磁盘缓存读取的纹理不计入
+	 * 
+	 * @return 字节数
+	 */
+	public long trimmedBytes() {
+		return trimmedBytes.get();
+	}
+
+	/**
+	 * 获取因超过截止时间而被丢弃的加载请求数量
+	 * 
+	 * @return 请求数量
+	 */
+	public long expiredRequests() {
+		return seizes.expired();
+	}
+
 	@Override
-	public void run() {
-		if (!Files.exists(Paths.get(wzlFn))) { // 微端！
-			runHttp();
-		} else {
-			runFile();
-		}
+	public int priority() {
+		var highest = seizes.highest();
+		return highest == null ? 0 : highest.ordinal() + 1;
 	}
 
-	private void runFile() {
-		try {
-			var buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(wzxFn))).order(ByteOrder.LITTLE_ENDIAN);
-			buffer.position(44);
-			imageCount = buffer.getInt();
-			offsetList = new int[imageCount + 1];
-			loadedFlag = new boolean[imageCount];
-			for (var i = 0; i < imageCount; ++i) {
-				offsetList[i] = buffer.getInt();// UnsignedInt
-				if (offsetList[i] < 64) offsetList[i] = 0;
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		
-		RandomAccessFile raf = null;
-		long fLen = 0;
+	@Override
+	public long runStep() {
 		try {
-			raf = new RandomAccessFile(wzlFn, "r");
-			fLen = raf.length();
-			offsetList[imageCount] = (int) (fLen - 1);
-		} catch (IOException e) {
+			return step();
+		} catch (RuntimeException e) {
+			// 文件损坏等意外错误，不能让调度器丢弃任务后图集仍处于已提交状态
 			e.printStackTrace();
+			return abort(e);
 		}
+	}
 
-		var buffer = (ByteBuffer) null;
-		var bufferOffset = -1;
-		var bytesBuffer = new byte[maxLoadSizePer];
-		while (!cancel) {
-			// 是否已完成所有纹理加载
-			var loadedCompleted = true;
-			for (var i = 0; i < imageCount; ++i) {
-				if (!loadedFlag[i]) {
-					loadedCompleted = false;
-					break;
+	private long step() {
+		if (cancel) {
+			dropUploads();
+			return -1;
+		}
+		if (!initialized) {
+			httpMode = FrameSource.dataFile(indexFn) == null; // 微端！
+			if (httpMode) {
+				try {
+					initHttp();
+				} catch (IOException | RuntimeException e) {
+					return cancel ? -1 : backoff(e);
 				}
+			} else {
+				if (!initFile())
+					return abort(new IOException("can not open " + indexFn));
 			}
-			if (loadedCompleted) {
+			initialized = true;
+		}
+		if (httpMode && stale())
+			return 0; // 下一步从服务器重新初始化
+
+		if (!pendingUploads.isEmpty()) {
+			retryUploads();
+			flushBatch();
+			if (!pendingUploads.isEmpty())
+				return UPLOAD_RETRY_MILLIS; // 等待渲染线程取出，期间其他图集可以继续加载
+		}
+
+		// 支持抢占式优先级
+		var seize = (Integer) null;
+		for (var no = seizes.poll(); no != -1; no = seizes.poll()) {
+			if (validSeize(no)) {
+				seize = no;
+				break;
+			}
+		}
+
+		// 是否已完成所有纹理加载
+		if (seize == null && progress.isComplete()) {
+			if (httpMode) {
+				PartialDownload partial;
+				synchronized (this) {
+					partial = this.partial;
+				}
+				if (!revalidated()) {
+					if (!initialized)
+						return 0; // 服务器上的文件已变化，重新下载
+					httpError = null; // 无法确认时保留下载中的文件
+					partial = null;
+				}
 				try {
-					raf.close();
+					if (partial != null)
+						partial.promote();
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
+				// 之后被淘汰的纹理从本地文件重新加载
+				httpMode = false;
+				initialized = false;
+			}
+			synchronized (this) {
+				started = false; // 纹理被缓存淘汰后可以重新提交
+				unlistenEviction();
+				// 不再占用文件，重新提交时再打开
+				closeFile();
+				initialized = false;
+			}
+			if (!completedNotified) {
+				completedNotified = true;
 				if (loadCompletedEventHandler != null)
 					loadCompletedEventHandler.loadCompleted(fno);
-				break;
 			}
+			return -1;
+		}
 
-			// 本次开始加载的纹理编号
-			var startNo = 0;
-			// 支持抢占式优先级
-			var seize = seizes.poll();
-			if (seize == null || loadedFlag[seize]) {
-				try {
-					if (loadSemaphore.tryAcquire(autoLoadDelyInMilli, TimeUnit.MILLISECONDS)) {
-						if (cancel) return;
-						seize = seizes.poll();
-						loadSemaphore.drainPermits();
-					}
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+		if (seize == null) {
+			if (!idleWaited) {
+				// 没有需要优先加载的纹理时，等待一段时间再继续后台顺序加载，期间可被load打断
+				idleWaited = true;
+				return autoLoadDelyInMilli;
 			}
-			if (seize != null && !loadedFlag[seize]) {
-				startNo = seize;
-			} else {
-				for (var i = 0; i < imageCount; ++i) {
-					if (!loadedFlag[i]) {
-						startNo = i;
-						break;
-					}
-				}
+			// 后台顺序加载受资源预算限制
+			var wait = backgroundNotBefore - System.nanoTime();
+			if (wait > 0)
+				return TimeUnit.NANOSECONDS.toMillis(wait) + 1;
+		}
+		idleWaited = false;
+		// 本次开始加载的纹理编号
+		var startNo = seize != null ? seize : progress.nextUnloaded(0);
+		var begin = System.nanoTime();
+		var loadedSize = httpMode ? loadHttp(startNo) : loadFile(startNo);
+		flushBatch();
+		if (!initialized) {
+			// 服务器上的文件已变化，重新初始化后再加载
+			if (seize != null)
+				seizes.requeue();
+			return 0;
+		}
+		if (httpError != null) {
+			var e = httpError;
+			httpError = null;
+			if (seize != null)
+				seizes.requeue(); // 失败的优先加载纹理在重试时仍然优先
+			return cancel ? -1 : backoff(e);
+		}
+		httpFailures = 0;
+		if (seize == null) {
+			var elapsed = System.nanoTime() - begin;
+			var ioWait = (long) (loadedSize * 1e9 / backgroundBytesPerSecond);
+			var cpuWait = (long) (elapsed * (1 / backgroundCpuFraction - 1));
+			backgroundNotBefore = begin + Math.max(ioWait, elapsed + cpuWait);
+		}
+		return 0;
+	}
+
+	/**
+	 * 加载出错，停止本次加载并以异常结束等待中的请求
+	 * <br>
+	 * 图集回到未提交状态，之后调用{@link #load(int...)}会重新打开文件
+	 */
+	private long abort(Throwable ex) {
+		synchronized (this) {
+			started = false;
+			initialized = false;
+			unlistenEviction();
+			closeFile();
+		}
+		dropUploads();
+		failRequests(ex);
+		return -1;
+	}
+
+	/** 优先加载的纹理是否仍需加载 */
+	private boolean validSeize(int no) {
+		if (no < 0 || no >= imageCount) {
+			Request req;
+			synchronized (requests) {
+				req = requests.remove(no);
 			}
-			// 如果是空图片
-			if (offsetList[startNo] == 0) {
-				loadedFlag[startNo] = true;
-				if (textureConsumer != null)
-					textureConsumer.recv(fno, startNo, EMPTY);
-				continue;
+			if (req != null)
+				req.result.completeExceptionally(new IndexOutOfBoundsException(fno + " texture " + no));
+			return false;
+		}
+		if (cache != null && progress.isLoaded(no) && !cache.contains(fno, no))
+			progress.markEvicted(no); // 未注册淘汰监听期间被淘汰，或被直接移除
+		return !progress.isLoaded(no) || requested(no);
+	}
+
+	private boolean initFile() {
+		FrameSource reader;
+		try {
+			reader = FrameSource.open(indexFn);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		imageCount = reader.getImageCount();
+		TextureDiskCache.Library diskLibrary = null;
+		if (diskCache != null) {
+			try {
+				diskLibrary = diskCache.open(fno, Paths.get(FrameSource.dataFile(indexFn)), imageCount, decodeOptions());
+			} catch (IOException | RuntimeException e) {
+				e.printStackTrace(); // 不使用磁盘缓存
 			}
+		}
+		synchronized (this) {
+			this.reader = reader;
+			this.diskLibrary = diskLibrary;
+		}
+		if (cancel)
+			closeFile(); // 打开期间被取消
+		if (progress == null || progress.imageCount() != imageCount)
+			progress = new LoadProgress(imageCount);
+		return true;
+	}
 
-			var startOffset = offsetList[startNo];
-			var texDataLen = 0;
-			for (var i = startNo + 1; i < imageCount + 1; ++i) {
-				if (offsetList[i] != 0) {
-					texDataLen = offsetList[i] - offsetList[startNo];
-					break;
-				}
+	/** 关闭本地文件、微端下载中的文件和磁盘缓存文件 */
+	private synchronized void closeFile() {
+		if (reader != null) {
+			reader.close();
+			reader = null;
+		}
+		if (partial != null) {
+			partial.close();
+			partial = null;
+		}
+		if (diskLibrary != null) {
+			diskCache.release(diskLibrary);
+			diskLibrary = null;
+		}
+	}
+
+	/** 解码选项，区分磁盘缓存文件和重复纹理的哈希 */
+	private int decodeOptions() {
+		return (decoder.indexed ? 2 : 0) | (trim ? 1 : 0);
+	}
+
+	/** 从本地文件加载一块纹理，返回读取的字节数 */
+	private int loadFile(int startNo) {
+		// 取消时其他线程会关闭文件，本次加载使用开始时的读取器
+		FrameSource reader;
+		TextureDiskCache.Library diskLibrary;
+		synchronized (this) {
+			reader = this.reader;
+			diskLibrary = this.diskLibrary;
+		}
+		if (reader == null) return 0;
+		// 直接从映射区域顺序切分纹理，单次解码的数据量不超过maxLoadSizePer
+		var nos = new int[16];
+		var frames = new ByteBuffer[16];
+		var count = 0;
+		var loadedSize = 0;
+		for (var no = startNo; no < imageCount && loadedSize < maxLoadSizePer; ++no) {
+			if (cancel) return loadedSize;
+			if (skipped(no, startNo)) continue;
+			if (reader.isEmpty(no)) {
+				deliver(no, Texture.EMPTY);
+				continue;
 			}
-			if (buffer != null) { // 本地文件使用缓存命中方式加速，每次读取一张纹理
-				buffer.position(0);
-				if (texDataLen == 0 || bufferOffset > startOffset || bufferOffset + buffer.remaining() < startOffset + texDataLen) {
-					buffer = null;
-				}
-				if (buffer != null) {
-					buffer.position(startOffset - bufferOffset);
-					try {
-						unpackTextures(buffer, startNo);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-					continue;
-				}
+			var cached = diskLibrary != null ? diskLibrary.get(no, decoder) : null;
+			if (cached != null) {
+				loadedSize += reader.dataLength(no);
+				deliver(no, cached);
+				continue;
 			}
 			try {
-				raf.seek(startOffset);
-				bufferOffset = startOffset;
-				var realBytesBuffer = bytesBuffer;
-				if (texDataLen > bytesBuffer.length) {
-					realBytesBuffer = new byte[texDataLen];
+				if (count == nos.length) {
+					nos = Arrays.copyOf(nos, count * 2);
+					frames = Arrays.copyOf(frames, count * 2);
 				}
-				var readLen = raf.read(realBytesBuffer);
-				buffer = ByteBuffer.wrap(realBytesBuffer, 0, readLen).order(ByteOrder.LITTLE_ENDIAN);
-
-				unpackTextures(buffer, startNo);
+				nos[count] = no;
+				frames[count++] = reader.frame(no);
+				loadedSize += reader.dataLength(no);
 			} catch (IOException e) {
-				e.printStackTrace();
+				if (!cancel)
+					e.printStackTrace();
+				return loadedSize;
 			}
 		}
+		decodeAll(reader, diskLibrary, nos, frames, count);
+		return loadedSize;
 	}
 
-	private void runHttp() {
-		while (!cancel) {
-			try {
-				var url = new URL(wzxUrl);
-				var conn = (HttpURLConnection) url.openConnection();
-				conn.setConnectTimeout(1000);
-				conn.setReadTimeout(3000);
-				conn.setRequestMethod("GET");
-				conn.connect();
-	
-				var respCode = conn.getResponseCode();
-				if (respCode < 200 || respCode >= 300) {
-					conn.disconnect();
-					continue;
+	/**
+	 * 解码一组纹理并推送
+	 * <br>
+	 * 设置了解码线程池时并行解码，结果仍在当前线程按完成顺序（或编号顺序）推送
+	 *
+	 * @param source 纹理数据的格式
+	 * @param disk   解码结果写入的磁盘缓存，为null表示不写入
+	 */
+	private void decodeAll(FrameSource source, TextureDiskCache.Library disk, int[] nos, ByteBuffer[] frames, int count) {
+		if (decodePool == null || count < 2) {
+			for (var i = 0; i < count && !cancel; ++i) {
+				var tex = (Texture) null;
+				try {
+					tex = decode(source, nos[i], frames[i]);
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
-				var byteBuffer = (ByteBuffer) null;
-				try (var bos = new ByteArrayOutputStream()) {
-					try (var is = conn.getInputStream()) {
-						var readLen = 0;
-						var buf = new byte[4096];
-	
-						while ((readLen = is.read(buf)) > 0) {
-							bos.write(buf, 0, readLen);
-						}
-					}
-					var dData = bos.toByteArray();
-					try {
-						dData = SDK.unzip(dData);
-					} catch (IOException ex) {}
-					if (!Files.exists(Paths.get(wzxFn).getParent())) {
-						Files.createDirectories(Paths.get(wzxFn).getParent());
-					}
-					Files.write(Paths.get(wzxFn), dData);
-					byteBuffer = ByteBuffer.wrap(dData).order(ByteOrder.LITTLE_ENDIAN);
+				if (tex != null) {
+					if (disk != null) disk.put(nos[i], tex);
+					deliver(nos[i], tex);
+				}
+				else
+					broken(nos[i]);
+			}
+			return;
+		}
+		var results = new Texture[count];
+		var completionService = new ExecutorCompletionService<Integer>(decodePool);
+		var futures = new ArrayList<Future<Integer>>(count);
+		for (var i = 0; i < count; ++i) {
+			var idx = i;
+			futures.add(completionService.submit(() -> {
+				results[idx] = decode(source, nos[idx], frames[idx]);
+				return idx;
+			}));
+		}
+		try {
+			for (var i = 0; i < count; ++i) {
+				var future = orderedDelivery ? futures.get(i) : completionService.take();
+				var idx = 0;
+				try {
+					idx = future.get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace(); // 出错的纹理在下面统一标记
+					continue;
 				}
-				byteBuffer.position(44);
-				imageCount = byteBuffer.getInt();
-				offsetList = new int[imageCount + 1];
-				loadedFlag = new boolean[imageCount];
-				for (var i = 0; i < imageCount; ++i) {
-					offsetList[i] = byteBuffer.getInt();// UnsignedInt
-					if (offsetList[i] < 64) offsetList[i] = 0;
+				if (results[idx] == null)
+					continue;
+				if (!cancel) {
+					if (disk != null) disk.put(nos[idx], results[idx]);
+					deliver(nos[idx], results[idx]);
 				}
-	
-				conn.disconnect();
-				break;
-			} catch (IOException ex) {
-				ex.printStackTrace();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (var i = 0; i < count; ++i) {
+				futures.get(i).cancel(false);
+				if (results[i] == null && !cancel)
+					broken(nos[i]);
 			}
 		}
-		
-		var fLen = 0l;
+	}
+
+	private Texture decode(FrameSource source, int no, ByteBuffer frame) throws IOException {
+		var dedup = decoder.directPool == null ? this.dedup : null; // 堆外像素各自释放，不能共享
+		var hash = 0L;
+		if (dedup != null) {
+			var seed = decodeOptions();
+			hash = source.hash(no, frame, seed);
+			var shared = dedup.get(hash);
+			if (shared != null) return shared;
+		}
+		var tex = source.decode(no, frame, decoder);
+		if (trim && tex != null) {
+			var size = tex.byteSize();
+			var trimmed = tex.trimmed();
+			if (trimmed != tex)
+				trimmedBytes.addAndGet(size - trimmed.byteSize());
+			tex = trimmed;
+		}
+		return dedup != null && tex != null ? dedup.put(hash, tex) : tex;
+	}
+
+	/** 本次加载是否跳过纹理：未被请求的已加载纹理，以及除本次起始纹理外被缓存淘汰的 */
+	private boolean skipped(int no, int startNo) {
+		if (requested(no)) return false;
+		return progress.isLoaded(no) || (no != startNo && progress.isEvicted(no));
+	}
+
+	/** 纹理解码完毕，放入上传队列，放不下时留到之后的加载步骤重试 */
+	private void deliver(int no, Texture tex) {
+		// 放入上传队列后渲染线程可能随时上传并释放堆外像素，位图必须在此之前生成
+		if (alphaMasks != null && !tex.isEmpty && alphaMasks.get(fno, no) == null)
+			alphaMasks.put(fno, no, AlphaMask.of(tex));
+		if (uploadQueue != null && !tex.isEmpty && (!pendingUploads.isEmpty() || !uploadQueue.offer(fno, no, tex))) {
+			pendingUploads.add(new PendingUpload(no, tex));
+			return;
+		}
+		delivered(no, tex);
+	}
+
+	/** 重试放入上传队列，按解码顺序放入直到队列再次满 */
+	private void retryUploads() {
+		for (var upload = pendingUploads.peek(); upload != null; upload = pendingUploads.peek()) {
+			if (uploadQueue != null && !uploadQueue.offer(fno, upload.no, upload.tex))
+				return;
+			pendingUploads.poll();
+			delivered(upload.no, upload.tex);
+		}
+	}
+
+	/** 加载已取消，丢弃尚未放入上传队列的纹理 */
+	private void dropUploads() {
+		for (var upload = pendingUploads.poll(); upload != null; upload = pendingUploads.poll()) {
+			upload.tex.release();
+		}
+	}
+
+	/** 纹理已放入上传队列（或不使用上传队列），标记并推送 */
+	private void delivered(int no, Texture tex) {
+		progress.markLoaded(no);
+		if (cache != null && !tex.isEmpty)
+			cache.put(fno, no, tex);
+		if (textureConsumer != null)
+			textureConsumer.recv(fno, no, tex);
+		if (batchConsumer != null)
+			batch(no, tex);
+		Request req;
+		synchronized (requests) {
+			req = requests.isEmpty() ? null : requests.remove(no);
+		}
+		if (req != null)
+			req.result.complete(tex);
+	}
+
+	/** 纹理放入本次加载的批次，空纹理合并到连续区间 */
+	private void batch(int no, Texture tex) {
+		if (tex.isEmpty) {
+			if (emptyTo != no || emptyFrom == emptyTo) {
+				flushEmpty();
+				emptyFrom = no;
+			}
+			emptyTo = no + 1;
+			return;
+		}
+		if (batchCount == batchNos.length) {
+			batchNos = Arrays.copyOf(batchNos, batchCount * 2);
+			batchTexs = Arrays.copyOf(batchTexs, batchCount * 2);
+		}
+		batchNos[batchCount] = no;
+		batchTexs[batchCount++] = tex;
+	}
+
+	private void flushEmpty() {
+		if (emptyFrom == emptyTo) return;
+		var from = emptyFrom;
+		emptyFrom = emptyTo;
+		batchConsumer.recvEmpty(fno, from, emptyTo);
+	}
+
+	/** 推送本次加载的批次 */
+	private void flushBatch() {
+		if (batchConsumer == null) return;
+		flushEmpty();
+		if (batchCount == 0) return;
+		var nos = Arrays.copyOf(batchNos, batchCount);
+		var texs = Arrays.copyOf(batchTexs, batchCount);
+		Arrays.fill(batchTexs, 0, batchCount, null);
+		batchCount = 0;
+		batchConsumer.recv(fno, nos, texs);
+	}
+
+	/** 微端请求失败，返回重试前的等待时间 */
+	private long backoff(Throwable e) {
+		if (httpFailures++ == 0)
+			e.printStackTrace(); // 连续失败只打印第一次
+		transport.recordRetry();
+		if (e instanceof MicroClientTransport.CircuitOpenException)
+			return ((MicroClientTransport.CircuitOpenException) e).retryAfterMillis; // 熔断结束后立即试探
+		return retryPolicy.delayMillis(httpFailures);
+	}
+
+	private void initHttp() throws IOException {
+		if (resumeOffline())
+			return;
+		var indexCrc = new CRC32();
+		var dData = transport.get(indexUrl);
 		try {
-			var url = new URL(wzlUrl);
-			var conn = (HttpURLConnection) url.openConnection();
-			conn.setConnectTimeout(1000);
-			conn.setReadTimeout(3000);
-			conn.setRequestMethod("HEAD");
-			conn.connect();
-			fLen = conn.getContentLength(); // 如果是nginx可能没有这个属性，需要设置！
-			offsetList[imageCount] = (int) (fLen - 1);
-			conn.disconnect();
-		} catch (IOException e) {
-			e.printStackTrace();
+			dData = SDK.unzip(dData);
+		} catch (IOException ex) {}
+		var offsetList = FrameSource.offsets(indexFn, ByteBuffer.wrap(dData).order(ByteOrder.LITTLE_ENDIAN));
+		var imageCount = offsetList.length - 1;
+		// 获取文件长度失败时同样稍后重试，不能使用错误的长度切分纹理
+		var fLen = transport.contentLength(dataUrl);
+		offsetList[imageCount] = (int) fLen;
+
+		if (!Files.exists(Paths.get(indexFn).getParent())) {
+			Files.createDirectories(Paths.get(indexFn).getParent());
+		}
+		Files.write(Paths.get(indexFn), dData);
+		indexCrc.update(dData);
+		// 下载网络文件到本地，上次未下载完的数据继续使用
+		var partial = new PartialDownload(dataFn, fLen, imageCount, indexCrc.getValue());
+		FrameSource source;
+		try {
+			// 数据文件头部不属于任何纹理，单独下载；wil的颜色数在其中
+			var header = new byte[headerLength(offsetList)];
+			if (header.length > 0 && transport.fetchRange(dataUrl, 0, header.length - 1, partial.channel(), header).get() < header.length)
+				throw new IOException(dataUrl + " header truncated");
+			partial.setHeader();
+			source = FrameSource.remote(indexFn, offsetList, ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN), dataUrl);
+		} catch (IOException | RuntimeException e) {
+			partial.close();
+			throw e;
+		} catch (ExecutionException e) {
+			partial.close();
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			partial.close();
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		opened(source, partial, offsetList, fLen, indexCrc.getValue());
+		revalidation = null;
+	}
+
+	/**
+	 * 上次未下载完且数据文件头部已下载时，不访问服务器，使用本地的索引文件继续加载
+	 * <br>
+	 * 已下载的纹理可以离线读取；服务器上的文件是否变化在后台确认，确认之前不下载新的数据
+	 *
+	 * @return 是否已从本地恢复，否则需要从服务器初始化
+	 */
+	private boolean resumeOffline() {
+		var index = Paths.get(indexFn);
+		if (!Files.exists(index))
+			return false;
+		PartialDownload partial = null;
+		try {
+			var dData = Files.readAllBytes(index);
+			var indexCrc = new CRC32();
+			indexCrc.update(dData);
+			var offsetList = FrameSource.offsets(indexFn, ByteBuffer.wrap(dData).order(ByteOrder.LITTLE_ENDIAN));
+			var imageCount = offsetList.length - 1;
+			var fLen = PartialDownload.resumableLength(dataFn, imageCount, indexCrc.getValue());
+			if (fLen < 0)
+				return false;
+			offsetList[imageCount] = (int) fLen;
+			partial = new PartialDownload(dataFn, fLen, imageCount, indexCrc.getValue());
+			var header = ByteBuffer.allocate(headerLength(offsetList)).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining()) {
+				if (partial.channel().read(header, header.position()) < 0)
+					throw new IOException(dataFn + ".part truncated");
+			}
+			var source = FrameSource.remote(indexFn, offsetList, header.flip(), dataUrl);
+			opened(source, partial, offsetList, fLen, indexCrc.getValue());
+			revalidation = revalidate();
+			return true;
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace(); // 从服务器重新初始化
+			if (partial != null)
+				partial.close();
+			return false;
+		}
+	}
+
+	/** 微端下载中的文件已打开，开始加载 */
+	private void opened(FrameSource source, PartialDownload partial, int[] offsetList, long fLen, long indexCrc) {
+		synchronized (this) {
+			this.reader = source;
+			this.partial = partial;
+		}
+		if (cancel)
+			closeFile(); // 初始化期间被取消
+		this.imageCount = offsetList.length - 1;
+		this.offsetList = offsetList;
+		this.fLen = fLen;
+		this.indexCrc = indexCrc;
+		downloaded = partial.downloaded;
+		progress = new LoadProgress(imageCount);
+	}
+
+	/** 在后台重新获取索引和数据文件长度，与本地继续下载所用的比较 */
+	private CompletableFuture<Boolean> revalidate() {
+		var indexCrc = this.indexCrc;
+		var fLen = this.fLen;
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				var dData = transport.get(indexUrl);
+				try {
+					dData = SDK.unzip(dData);
+				} catch (IOException ex) {}
+				var crc = new CRC32();
+				crc.update(dData);
+				return crc.getValue() == indexCrc && transport.contentLength(dataUrl) == fLen;
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	/** 后台确认已完成且服务器上的文件已变化时丢弃本地下载，返回true */
+	private boolean stale() {
+		var check = revalidation;
+		if (check == null || !check.isDone() || check.isCompletedExceptionally() || check.join())
+			return false;
+		restart();
+		return true;
+	}
+
+	/**
+	 * 等待后台确认服务器上的文件未变化
+	 * <br>
+	 * 文件已变化时丢弃本地下载；无法确认时记录错误并重新发起确认
+	 *
+	 * @return 是否可以继续使用本地下载
+	 */
+	private boolean revalidated() {
+		var check = revalidation;
+		if (check == null)
+			return true;
+		try {
+			if (check.get()) {
+				revalidation = null;
+				return true;
+			}
+			restart();
+		} catch (ExecutionException e) {
+			httpError = e.getCause();
+			revalidation = revalidate();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			httpError = e;
 		}
+		return false;
+	}
 
-		// 下载网络文件到本地
-		RandomAccessFile raf = null;
-		var tempFile = (File) null;
+	/** 服务器上的文件已变化，关闭并删除下载中的文件，下一步从服务器重新初始化 */
+	private void restart() {
+		closeFile();
 		try {
-			tempFile = Files.createTempFile(null, null).toFile();
-			raf = new RandomAccessFile(tempFile, "rw");
-			raf.seek(0x2C);
-			raf.write((imageCount >>> 0) & 0xFF);
-			raf.write((imageCount >>> 8) & 0xFF);
-			raf.write((imageCount >>> 16) & 0xFF);
-			raf.write((imageCount >>> 24) & 0xFF);
+			PartialDownload.discard(dataFn);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		revalidation = null;
+		initialized = false;
+	}
 
-		while (!cancel) {
-			// 是否已完成所有纹理加载
-			var loadedCompleted = true;
-			for (var i = 0; i < imageCount; ++i) {
-				if (!loadedFlag[i]) {
-					loadedCompleted = false;
-					break;
-				}
+	/** 数据文件中第一张纹理之前的字节数 */
+	private static int headerLength(int[] offsetList) {
+		var imageCount = offsetList.length - 1;
+		var first = offsetList[imageCount];
+		for (var i = 0; i < imageCount; ++i) {
+			if (offsetList[i] != 0)
+				first = Math.min(first, offsetList[i]);
+		}
+		return first;
+	}
+
+	/**
+	 * 从微端下载一块纹理，返回下载的字节数
+	 * <br>
+	 * 第一段从startNo开始，其余各段从之后尚未加载的纹理开始，每段按纹理边界切分；各段同时下载，按顺序解码
+	 * <br>
+	 * 已在本地下载文件中的数据不再下载；与本段间隔较小的其他优先加载纹理合并到同一个请求
+	 */
+	private int loadHttp(int startNo) {
+		// 取消时其他线程会关闭文件，本次加载使用开始时的对象
+		FrameSource source;
+		PartialDownload partial;
+		synchronized (this) {
+			source = reader;
+			partial = this.partial;
+		}
+		if (source == null) return 0;
+		if (offsetList[startNo] != 0 && downloaded.get(startNo))
+			return loadTemp(source, partial, startNo);
+		if (!revalidated())
+			return 0; // 本地恢复的下载尚未确认有效，不能按旧索引下载
+		var chunkSize = transport.chunkSize(maxLoadSizePer);
+		var mergeGap = transport.mergeGap();
+		var pending = seizes.pending();
+		var chunkNos = new int[httpParallelism];
+		var froms = new long[httpParallelism];
+		var dsts = new byte[httpParallelism][];
+		var count = 0;
+		for (var no = startNo; no != -1 && count < httpParallelism;) {
+			// 空纹理不需要下载
+			for (; no < imageCount && offsetList[no] == 0; ++no) {
+				if (!skipped(no, no))
+					deliver(no, Texture.EMPTY);
 			}
-			if (loadedCompleted) {
-				try {
-					raf.close();
-					Files.copy(tempFile.toPath(), Paths.get(wzlFn));
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				if (loadCompletedEventHandler != null)
-					loadCompletedEventHandler.loadCompleted(fno);
-				break;
+			if (no >= imageCount) break;
+			if (source.dataLength(no) == 0) {
+				// 偏移错误，无法确定数据范围
+				broken(no);
+				no = nextMissing(no + 1);
+				continue;
 			}
-
-			// 本次开始加载的纹理编号
-			var startNo = 0;
-			// 支持抢占式优先级
-			var seize = seizes.poll();
-			if (seize == null || loadedFlag[seize]) {
-				try {
-					if (loadSemaphore.tryAcquire(autoLoadDelyInMilli, TimeUnit.MILLISECONDS)) {
-						if (cancel) return;
-						seize = seizes.poll();
-						loadSemaphore.drainPermits();
+			var start = no;
+			if (count == 0) {
+				// 向前合并间隔较小的优先加载纹理
+				for (var i = lowerBound(pending, start) - 1; i >= 0; --i) {
+					var p = pending[i];
+					if (!missing(p, p) || offsetList[start] - offsetList[p] > mergeGap + source.dataLength(p)) break;
+					var contiguous = true;
+					for (var k = p; k < start && contiguous; ++k) {
+						contiguous = offsetList[k] == 0 || !downloaded.get(k);
 					}
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+					if (!contiguous) break;
+					start = p;
 				}
 			}
-			if (seize != null && !loadedFlag[seize]) {
-				startNo = seize;
-			} else {
-				for (var i = 0; i < imageCount; ++i) {
-					if (!loadedFlag[i]) {
-						startNo = i;
-						break;
-					}
+			var end = start;
+			var size = 0;
+			for (; end < imageCount && (offsetList[end] == 0 || !downloaded.get(end)); ++end) {
+				if (size >= chunkSize) {
+					// 向后合并间隔较小的优先加载纹理，合并后不超过两倍请求大小
+					var i = lowerBound(pending, end);
+					while (i < pending.length && !missing(pending[i], pending[i])) ++i;
+					if (i == pending.length) break;
+					var q = pending[i];
+					var gap = offsetList[q] - (offsetList[start] + size);
+					if (gap > mergeGap || size + gap + source.dataLength(q) > chunkSize * 2) break;
 				}
+				size += source.dataLength(end);
 			}
-			// 如果是空图片
-			if (offsetList[startNo] == 0) {
-				loadedFlag[startNo] = true;
-				if (textureConsumer != null)
-					textureConsumer.recv(fno, startNo, EMPTY);
-				continue;
-			}
-
-			var startOffset = offsetList[startNo];
-			var texDataLen = 0;
-			for (var i = startNo + 1; i < imageCount + 1; ++i) {
-				if (offsetList[i] != 0) {
-					texDataLen = offsetList[i] - offsetList[startNo];
-					break;
+			chunkNos[count] = start;
+			froms[count] = offsetList[start];
+			dsts[count++] = new byte[size];
+			no = nextMissing(end);
+		}
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Integer>[] futures = (CompletableFuture<Integer>[]) new CompletableFuture<?>[count];
+		for (var i = 0; i < count; ++i) {
+			// 微端模式下，每次下载的数据马上解析并推送，同时写入本地下载文件
+			futures[i] = transport.fetchRange(dataUrl, froms[i], froms[i] + dsts[i].length - 1, partial.channel(), dsts[i]);
+		}
+		var loadedSize = 0;
+		for (var i = 0; i < count; ++i) {
+			try {
+				var len = futures[i].get();
+				loadedSize += len;
+				markDownloaded(source, partial, chunkNos[i], len);
+				if (!cancel)
+					unpackTextures(source, ByteBuffer.wrap(dsts[i], 0, len).order(ByteOrder.LITTLE_ENDIAN), chunkNos[i]);
+			} catch (ExecutionException e) {
+				if (httpError == null)
+					httpError = e.getCause();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (var f : futures) {
+					f.cancel(true);
 				}
+				break;
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			var rangeEnd = Math.min(startOffset + Math.max(maxLoadSizePer, texDataLen), fLen - 1); // 微端模式下，每次下载的数据马上解析并存储到显存，同时写入临时文件，这样给用户的体验上看显示要慢一些
+		}
+		if (loadedSize > 0) {
 			try {
-				var url = new URL(wzlUrl);
-				var conn = (HttpURLConnection) url.openConnection();
-				conn.setConnectTimeout(1000);
-				conn.setReadTimeout(3000);
-				conn.setRequestMethod("GET");
-				conn.setRequestProperty("Range", "bytes=" + startOffset + "-" + rangeEnd);
-				conn.connect();
-
-				var respCode = conn.getResponseCode();
-				if (respCode < 200 || respCode >= 300) {
-					conn.disconnect();
-					continue;
-				}
-				var buffer = (ByteBuffer) null;
-				try (var bos = new ByteArrayOutputStream()) {
-					try (var is = conn.getInputStream()) {
-						var readLen = 0;
-						var buf = new byte[4096];
-
-						while ((readLen = is.read(buf)) > 0) {
-							bos.write(buf, 0, readLen);
-						}
-					}
-					var dData = bos.toByteArray();
-					raf.seek(startOffset);
-					raf.write(dData);
-					buffer = ByteBuffer.wrap(dData).order(ByteOrder.LITTLE_ENDIAN);
-				}
-				conn.disconnect();
-				
-				unpackTextures(buffer, startNo);
-			} catch (IOException ex) {
-				ex.printStackTrace();
+				partial.written(loadedSize);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return loadedSize;
+	}
+
+	/** 从本地下载文件读取从startNo开始连续的已下载纹理，返回读取的字节数 */
+	private int loadTemp(FrameSource source, PartialDownload partial, int startNo) {
+		var end = startNo;
+		var size = 0;
+		while (end < imageCount && size < maxLoadSizePer && (offsetList[end] == 0 || downloaded.get(end))) {
+			size += source.dataLength(end++);
+		}
+		var data = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			while (data.hasRemaining()) {
+				if (partial.channel().read(data, offsetList[startNo] + data.position()) < 0)
+					throw new IOException(dataFn + ".part truncated");
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			partial.clear(startNo, end); // 下次重新下载
+			return 0;
 		}
+		data.flip();
+		try {
+			unpackTextures(source, data, startNo);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return size;
+	}
+
+	/** 纹理是否需要加载且数据不在本地下载文件中 */
+	private boolean missing(int no, int startNo) {
+		return no >= 0 && no < imageCount && offsetList[no] != 0 && !downloaded.get(no) && !skipped(no, startNo);
+	}
+
+	/** 查找下一张从未加载过且数据不在本地下载文件中的纹理，没有时返回-1 */
+	private int nextMissing(int from) {
+		var no = progress.nextUnloaded(from);
+		while (no != -1 && offsetList[no] != 0 && downloaded.get(no)) {
+			no = progress.nextUnloaded(no + 1);
+		}
+		return no;
+	}
+
+	/** 标记从startNo开始的len字节中完整的纹理已下载 */
+	private void markDownloaded(FrameSource source, PartialDownload partial, int startNo, int len) {
+		var size = 0;
+		for (var no = startNo; no < imageCount && size + source.dataLength(no) <= len; ++no) {
+			if (source.dataLength(no) == 0) continue;
+			size += source.dataLength(no);
+			partial.set(no);
+		}
+	}
+
+	/** 有序数组中第一个不小于key的元素位置 */
+	private static int lowerBound(int[] sorted, int key) {
+		var i = Arrays.binarySearch(sorted, key);
+		if (i < 0) return -i - 1;
+		while (i > 0 && sorted[i - 1] == key) --i;
+		return i;
 	}
 
-	private void unpackTextures(ByteBuffer byteBuffer, int startNo) throws IOException {
+	/** 按纹理数据长度切分从startNo开始的一段数据，交给source解码 */
+	private void unpackTextures(FrameSource source, ByteBuffer byteBuffer, int startNo) throws IOException {
+		// 先切分出每张纹理的数据，再统一解码
+		var nos = new int[16];
+		var frames = new ByteBuffer[16];
+		var count = 0;
 		for (var no = startNo; no < imageCount; ++no) {
-			if (cancel) break;
-			if (offsetList[no] == 0) {
-				if (!loadedFlag[no]) {
-					loadedFlag[no] = true;
-					if (textureConsumer != null)
-						textureConsumer.recv(fno, no, EMPTY);
-				}
+			if (cancel) return;
+			if (source.isEmpty(no)) {
+				if (!skipped(no, startNo))
+					deliver(no, Texture.EMPTY);
 				continue;
 			}
-			if (byteBuffer.remaining() < 16)
-				break;
-			var colorBit = byteBuffer.get();
-			var compressFlag = byteBuffer.get() != 0;
-			byteBuffer.position(byteBuffer.position() + 2); // 2字节未知数据
-			var width = byteBuffer.getShort();
-			var height = byteBuffer.getShort();
-			var offsetX = byteBuffer.getShort();
-			var offsetY = byteBuffer.getShort();
-			var dataLen = byteBuffer.getInt();
-			if (dataLen == 0) {
-				// 这里可能是一个bug，或者是其他引擎作者没有说清楚
-				// 本来一直以为是compressFlag作为是否zlib压缩的标志位
-				// 后来发现如果这里的长度是0，则表示没有压缩，后面是图片尺寸的裸数据
-				dataLen = width * height;
-				if (colorBit == 5) dataLen *= 2;
-				compressFlag = false;
-			}
-			if (byteBuffer.remaining() < dataLen)
+			var frameLen = source.dataLength(no);
+			if (byteBuffer.remaining() < frameLen)
 				break;
-			if (loadedFlag[no]) {
-				byteBuffer.position(byteBuffer.position() + dataLen);
-				continue;
-			}
-			var pixels = new byte[dataLen];
-			byteBuffer.get(pixels);
-			if (compressFlag) {
-				pixels = SDK.unzip(pixels);
-			}
-			byte[] sRGBA = new byte[width * height * 4];
-			if (colorBit != 5) { // 8位
-				int p_index = 0;
-				for (int h = height - 1; h >= 0; --h)
-					for (int w = 0; w < width; ++w) {
-						// 跳过填充字节
-						if (w == 0)
-							p_index += SDK.skipBytes(8, width);
-						byte[] pallete = SDK.palletes[pixels[p_index++] & 0xff];
-						int _idx = (w + h * width) * 4;
-						sRGBA[_idx] = pallete[1];
-						sRGBA[_idx + 1] = pallete[2];
-						sRGBA[_idx + 2] = pallete[3];
-						sRGBA[_idx + 3] = pallete[0];
-					}
-			} else { // 16位
-				ByteBuffer bb = ByteBuffer.wrap(pixels).order(ByteOrder.LITTLE_ENDIAN);
-				int p_index = 0;
-				for (int h = height - 1; h >= 0; --h)
-					for (int w = 0; w < width; ++w, p_index += 2) {
-						// 跳过填充字节
-						if (w == 0)
-							p_index += SDK.skipBytes(16, width);
-						short pdata = bb.getShort(p_index);
-						byte r = (byte) ((pdata & 0xf800) >> 8);// 由于是与16位做与操作，所以多出了后面8位
-						byte g = (byte) ((pdata & 0x7e0) >> 3);// 多出了3位，在强转时前8位会自动丢失
-						byte b = (byte) ((pdata & 0x1f) << 3);// 少了3位
-						int _idx = (w + h * width) * 4;
-						sRGBA[_idx] = r;
-						sRGBA[_idx + 1] = g;
-						sRGBA[_idx + 2] = b;
-						if (r == 0 && g == 0 && b == 0) {
-							sRGBA[_idx + 3] = 0;
-						} else {
-							sRGBA[_idx + 3] = -1;
-						}
-					}
-			}
-			loadedFlag[no] = true;
-			if (textureConsumer != null) {
-				textureConsumer.recv(fno, no, new Texture(false, width, height, offsetX, offsetY, sRGBA));
+			if (!skipped(no, startNo)) {
+				if (count == nos.length) {
+					nos = Arrays.copyOf(nos, count * 2);
+					frames = Arrays.copyOf(frames, count * 2);
+				}
+				var frame = byteBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+				frame.limit(byteBuffer.position() + frameLen);
+				nos[count] = no;
+				frames[count++] = frame;
 			}
+			byteBuffer.position(byteBuffer.position() + frameLen);
+		}
+		decodeAll(source, null, nos, frames, count);
+	}
+
+	/** 等待放入上传队列的纹理 */
+	private static final class PendingUpload {
+		final int no;
+		final Texture tex;
+
+		PendingUpload(int no, Texture tex) {
+			this.no = no;
+			this.tex = tex;
 		}
 	}
 
+	/** 同一编号纹理的所有请求共用的加载结果 */
+	private static final class Request {
+		final CompletableFuture<Texture> result = new CompletableFuture<>();
+		/** 未取消的调用者数量 */
+		int waiters;
+	}
+
 	@FunctionalInterface
 	public interface TextureConsumer {
 		/**
@@ -557,6 +1548,26 @@ public final class WZL extends Thread {
 		void recv(String fno, int no, Texture tex);
 	}
 
+	public interface TextureBatchConsumer {
+		/**
+		 * 一个加载步骤中的纹理解码完毕时触发，不包含空纹理
+		 * 
+		 * @param fno  文件编号
+		 * @param nos  纹理编号，与texs一一对应，按推送顺序排列
+		 * @param texs 纹理对象
+		 */
+		void recv(String fno, int[] nos, Texture[] texs);
+
+		/**
+		 * 一段连续编号的空纹理加载完毕时触发
+		 * 
+		 * @param fno  文件编号
+		 * @param from 起始纹理编号（包含）
+		 * @param to   结束纹理编号（不包含）
+		 */
+		void recvEmpty(String fno, int from, int to);
+	}
+
 	@FunctionalInterface
 	public interface LoadCompletedEventHandler {
 		/**
@@ -566,11 +1577,4 @@ public final class WZL extends Thread {
 		 */
 		void loadCompleted(String fno);
 	}
-
-	/** 空图片 */
-	private static Texture EMPTY;
-	
-	static {
-		EMPTY = new Texture(true, 1, 1, 0, 0, new byte[] { SDK.palletes[0][1], SDK.palletes[0][2], SDK.palletes[0][3], SDK.palletes[0][0] });
-	}
 }
@@ -0,0 +1,226 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * WZL文件随机读取类
+ * <br>
+ * 使用内存映射打开wzx和wzl文件，纹理直接从映射区域解码，不产生中间拷贝
+ * <br>
+ * {@link #get(int)}是同步调用，可以被多个线程同时调用
+ * <br>
+ * 映射区域在对象被回收后由虚拟机释放
+ */
+public final class WZLReader implements FrameSource {
+	/** 小于该值的偏移表示纹理为空 */
+	private static final int MIN_OFFSET = 64;
+
+	/** 库内图片总数 */
+	private final int imageCount;
+	/** 纹理数据起始偏移，最后一个元素为wzl文件长度 */
+	private final int[] offsetList;
+	/** 每张纹理数据（含头部）的长度 */
+	private final int[] dataLengths;
+	/** wzl映射区域 */
+	private volatile MappedByteBuffer wzl;
+
+	/**
+	 * 映射wzx和wzl文件
+	 *
+	 * @param wzxFn wzx文件路径
+	 * @param wzlFn wzl文件路径
+	 * @throws IOException 文件无法打开或映射
+	 */
+	public WZLReader(String wzxFn, String wzlFn) throws IOException {
+		this(index(wzxFn), map(wzlFn));
+	}
+
+	/**
+	 * 使用已读取的索引创建
+	 * <br>
+	 * 微端模式下wzl尚未下载，只用于切分和解码下载的纹理数据，{@link #frame(int)}不可用
+	 *
+	 * @param offsetList 纹理数据起始偏移，见{@link #offsets(ByteBuffer, String)}；wzl为null时最后一个元素需为wzl文件长度
+	 * @param wzl        wzl映射区域，可以为null
+	 */
+	WZLReader(int[] offsetList, MappedByteBuffer wzl) {
+		imageCount = offsetList.length - 1;
+		this.offsetList = offsetList;
+		if (wzl != null)
+			offsetList[imageCount] = wzl.capacity();
+		this.wzl = wzl;
+		dataLengths = LoadProgress.dataLengths(offsetList, imageCount);
+	}
+
+	/**
+	 * 解析wzx文件内容
+	 *
+	 * @param wzx   小端字节序的wzx文件内容
+	 * @param wzxFn wzx文件路径或网络地址，用于错误信息
+	 * @return 纹理数据起始偏移，空纹理为0；多出的最后一个元素留给wzl文件长度
+	 * @throws IOException 索引不完整
+	 */
+	static int[] offsets(ByteBuffer wzx, String wzxFn) throws IOException {
+		if (wzx.limit() < 48)
+			throw new IOException(wzxFn + " index truncated");
+		var imageCount = wzx.getInt(44);
+		if (imageCount < 0 || 48 + (long) imageCount * 4 > wzx.limit())
+			throw new IOException(wzxFn + " index truncated");
+		var offsetList = new int[imageCount + 1];
+		for (var i = 0; i < imageCount; ++i) {
+			offsetList[i] = wzx.getInt(48 + i * 4);// UnsignedInt
+			if (offsetList[i] < MIN_OFFSET) offsetList[i] = 0;
+		}
+		return offsetList;
+	}
+
+	private static int[] index(String wzxFn) throws IOException {
+		try (var wzxChannel = FileChannel.open(Paths.get(wzxFn), StandardOpenOption.READ)) {
+			return offsets(wzxChannel.map(FileChannel.MapMode.READ_ONLY, 0, wzxChannel.size()).order(ByteOrder.LITTLE_ENDIAN), wzxFn);
+		}
+	}
+
+	private static MappedByteBuffer map(String wzlFn) throws IOException {
+		try (var wzlChannel = FileChannel.open(Paths.get(wzlFn), StandardOpenOption.READ)) {
+			// 索引中的偏移为int，更大的文件无法定位纹理
+			if (wzlChannel.size() > Integer.MAX_VALUE)
+				throw new IOException(wzlFn + " is larger than 2GB");
+			return wzlChannel.map(FileChannel.MapMode.READ_ONLY, 0, wzlChannel.size());
+		}
+	}
+
+	/**
+	 * 获取库内图片总数
+	 *
+	 * @return 图片总数
+	 */
+	@Override
+	public int getImageCount() {
+		return imageCount;
+	}
+
+	/**
+	 * 判断纹理是否为空
+	 *
+	 * @param no 纹理编号，从0开始
+	 * @return true表示纹理为空
+	 */
+	@Override
+	public boolean isEmpty(int no) {
+		return offsetList[no] == 0;
+	}
+
+	/**
+	 * 获取纹理数据（含头部）在wzl文件中的字节数
+	 *
+	 * @param no 纹理编号，从0开始
+	 * @return 纹理数据字节数，空纹理返回0
+	 */
+	@Override
+	public int dataLength(int no) {
+		return dataLengths[no];
+	}
+
+	/**
+	 * 读取所有纹理的元数据
+	 * <br>
+	 * 只读取每张纹理的16字节头部，不解压色彩数据
+	 *
+	 * @return 元数据
+	 * @throws IOException 纹理头部超出文件范围或读取器已关闭
+	 */
+	@Override
+	public TextureMeta meta() throws IOException {
+		var meta = new TextureMeta(imageCount);
+		var buffer = frame(0);
+		var limit = buffer.limit();
+		for (var no = 0; no < imageCount; ++no) {
+			var pos = offsetList[no];
+			if (pos == 0) {
+				meta.setEmpty(no);
+				continue;
+			}
+			if (pos + TextureDecoder.HEADER_SIZE > limit)
+				throw new IOException("texture " + no + " header out of file");
+			var dataLen = buffer.getInt(pos + 12);
+			var width = buffer.getShort(pos + 4);
+			var height = buffer.getShort(pos + 6);
+			var colorBit = buffer.get(pos);
+			meta.set(no, colorBit, dataLen != 0 && buffer.get(pos + 1) != 0, width, height,
+					buffer.getShort(pos + 8), buffer.getShort(pos + 10),
+					dataLen != 0 ? dataLen : width * height * (colorBit == 5 ? 2 : 1));
+		}
+		return meta;
+	}
+
+	/**
+	 * 解码特定编号纹理
+	 *
+	 * @param no 纹理编号，从0开始
+	 * @return 纹理对象
+	 * @throws IOException 纹理数据损坏或读取器已关闭
+	 */
+	@Override
+	public Texture get(int no) throws IOException {
+		return get(no, TextureDecoder.RGBA);
+	}
+
+	/**
+	 * 解码特定编号纹理
+	 * <br>
+	 * 8位纹理可以保留调色板索引，占用内存为RGBA的四分之一，需要时通过{@link Texture#toRGBA()}展开
+	 *
+	 * @param no      纹理编号，从0开始
+	 * @param indexed 8位纹理是否保留调色板索引
+	 * @return 纹理对象
+	 * @throws IOException 纹理数据损坏或读取器已关闭
+	 */
+	@Override
+	public Texture get(int no, boolean indexed) throws IOException {
+		return get(no, indexed ? TextureDecoder.INDEXED : TextureDecoder.RGBA);
+	}
+
+	Texture get(int no, TextureDecoder decoder) throws IOException {
+		if (offsetList[no] == 0) return Texture.EMPTY;
+		var tex = decoder.decode(frame(no));
+		if (tex == null)
+			throw new IOException("texture " + no + " truncated");
+		return tex;
+	}
+
+	/**
+	 * 获取纹理数据（含头部）所在的映射区域
+	 * <br>
+	 * 返回的缓冲区为独立视图，position指向纹理头部
+	 */
+	@Override
+	public ByteBuffer frame(int no) throws IOException {
+		var buffer = wzl;
+		if (buffer == null)
+			throw new IOException("reader closed");
+		var view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		view.position(offsetList[no]);
+		return view;
+	}
+
+	@Override
+	public Texture decode(int no, ByteBuffer frame, TextureDecoder decoder) throws IOException {
+		return decoder.decode(frame);
+	}
+
+	@Override
+	public long hash(int no, ByteBuffer frame, long seed) {
+		return TextureDecoder.hash(frame, seed);
+	}
+
+	@Override
+	public void close() {
+		wzl = null;
+	}
+}
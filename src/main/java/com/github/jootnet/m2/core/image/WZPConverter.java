@@ -0,0 +1,221 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.github.jootnet.m2.core.SDK;
+
+/**
+ * wzx/wzl转换为wzp
+ * <br>
+ * 每张纹理解压并去除行填充后，按LZ4块格式重新压缩（压缩率不足时直接存储），数据按64字节对齐
+ * <br>
+ * 可选将所有纹理预先转换为RGBA，读取时只需拷贝，文件约为原始像素的4倍
+ * <br>
+ * wzp整个文件映射读取，不能超过2GB，超过时转换失败
+ * <br>
+ * 源wzx/wzl的长度和修改时间记录在wzp头部，源文件被替换后{@link ImageLibrary#open(String)}改为读取源文件，需要重新转换
+ * <br>
+ * 命令行用法：WZPConverter [--rgba] wzx文件...，在wzx同级目录生成同名wzp文件
+ * <br>
+ * WZPConverter --bench wzx文件...：比较从wzl和wzp解码所有纹理的耗时和读取的字节数
+ */
+public final class WZPConverter {
+
+	private WZPConverter() {}
+
+	/** 基准测试轮数 */
+	private static final int BENCH_ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		var rgba = false;
+		var bench = false;
+		var converted = 0;
+		for (var arg : args) {
+			if (arg.equals("--rgba")) {
+				rgba = true;
+				continue;
+			}
+			if (arg.equals("--bench")) {
+				bench = true;
+				continue;
+			}
+			if (bench) {
+				bench(arg, rgba);
+				converted++;
+				continue;
+			}
+			var wzpFn = SDK.changeFileExtension(arg, "wzp");
+			var begin = System.currentTimeMillis();
+			var size = convert(arg, SDK.changeFileExtension(arg, "wzl"), wzpFn, rgba);
+			System.out.println(arg + " -> " + wzpFn + " " + size + " bytes " + (System.currentTimeMillis() - begin) + "ms");
+			converted++;
+		}
+		if (converted == 0)
+			System.out.println("usage: WZPConverter [--rgba] [--bench] <wzx>...");
+	}
+
+	/**
+	 * 比较从wzl和wzp解码所有纹理的耗时和读取的字节数
+	 * <br>
+	 * 每轮重新打开文件，首轮包含映射和缺页的开销（文件可能已在系统缓存中），之后取最快的一轮；
+	 * wzp不存在或已过期时先转换到临时文件
+	 */
+	private static void bench(String wzxFn, boolean rgba) throws IOException {
+		var wzlFn = SDK.changeFileExtension(wzxFn, "wzl");
+		var wzpFn = SDK.changeFileExtension(wzxFn, "wzp");
+		var converted = false;
+		if (!Files.exists(Paths.get(wzpFn)) || !isCurrent(wzpFn, wzxFn, wzlFn)) {
+			wzpFn = Files.createTempFile("bench", ".wzp").toString();
+			convert(wzxFn, wzlFn, wzpFn, rgba);
+			converted = true;
+		}
+		try {
+			var wzl = new long[BENCH_ROUNDS][];
+			var wzp = new long[BENCH_ROUNDS][];
+			for (var round = 0; round < BENCH_ROUNDS; ++round) {
+				wzl[round] = decodeAll(wzxFn, wzlFn);
+				wzp[round] = decodeAll(wzxFn, wzpFn);
+			}
+			System.out.println(wzxFn + " (" + BENCH_ROUNDS + " rounds)");
+			System.out.println("  wzl: first " + millis(wzl[0][0]) + "ms, best " + millis(best(wzl)) + "ms, read " + wzl[0][1] + " bytes");
+			System.out.println("  wzp: first " + millis(wzp[0][0]) + "ms, best " + millis(best(wzp)) + "ms, read " + wzp[0][1] + " bytes");
+			System.out.println(String.format("  speedup: first %.2fx, best %.2fx, bytes %.2fx", (double) wzl[0][0] / wzp[0][0],
+					(double) best(wzl) / best(wzp), (double) wzl[0][1] / wzp[0][1]));
+		} finally {
+			if (converted)
+				Files.deleteIfExists(Paths.get(wzpFn));
+		}
+	}
+
+	private static boolean isCurrent(String wzpFn, String wzxFn, String wzlFn) {
+		try (var reader = new WZPReader(wzpFn)) {
+			return reader.isCurrent(wzxFn, wzlFn);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/** 打开并解码所有纹理为RGBA，返回{耗时（纳秒）, 读取的纹理数据字节数} */
+	private static long[] decodeAll(String wzxFn, String dataFn) throws IOException {
+		var begin = System.nanoTime();
+		var bytes = 0L;
+		try (var reader = dataFn.endsWith(".wzp") ? new WZPReader(dataFn) : new WZLReader(wzxFn, dataFn)) {
+			for (var no = 0; no < reader.getImageCount(); ++no) {
+				reader.get(no);
+				bytes += reader.dataLength(no);
+			}
+		}
+		return new long[] { System.nanoTime() - begin, bytes };
+	}
+
+	private static long best(long[][] rounds) {
+		var best = Long.MAX_VALUE;
+		for (var round : rounds) {
+			best = Math.min(best, round[0]);
+		}
+		return best;
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1_000_000;
+	}
+
+	/**
+	 * 转换一个图集
+	 * <br>
+	 * 先写入临时文件，完成后再改名为wzp，中途失败不会留下不完整的wzp
+	 *
+	 * @param wzxFn wzx文件路径
+	 * @param wzlFn wzl文件路径
+	 * @param wzpFn 生成的wzp文件路径
+	 * @param rgba  是否预先转换为RGBA
+	 * @return wzp文件字节数
+	 * @throws IOException 源文件无法读取、纹理损坏或目标文件无法写入
+	 */
+	public static long convert(String wzxFn, String wzlFn, String wzpFn, boolean rgba) throws IOException {
+		var target = Paths.get(wzpFn);
+		var tmp = Paths.get(wzpFn + ".tmp");
+		var fingerprint = WZPReader.sourceFingerprint(wzxFn, wzlFn);
+		try (var reader = new WZLReader(wzxFn, wzlFn);
+				var out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			var imageCount = reader.getImageCount();
+			var index = ByteBuffer.allocate(imageCount * WZPReader.ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			var pos = align(WZPReader.HEADER_SIZE + (long) index.capacity());
+			var compressed = new byte[0];
+			for (var no = 0; no < imageCount; ++no) {
+				var entry = no * WZPReader.ENTRY_SIZE;
+				if (reader.isEmpty(no)) continue;
+				var frame = reader.frame(no);
+				var colorBit = frame.get(frame.position());
+				byte[] raw;
+				byte format;
+				if (rgba) {
+					raw = reader.get(no).toRGBA();
+					format = WZPReader.FORMAT_RGBA;
+				} else {
+					raw = TextureDecoder.rows(frame);
+					if (raw == null)
+						throw new IOException(wzlFn + " texture " + no + " truncated");
+					format = colorBit == 5 ? WZPReader.FORMAT_RGB565 : WZPReader.FORMAT_INDEXED8;
+				}
+				if (compressed.length < LZ4.maxCompressedLength(raw.length))
+					compressed = new byte[LZ4.maxCompressedLength(raw.length)];
+				var storedLen = LZ4.compress(raw, raw.length, compressed);
+				var codec = WZPReader.CODEC_LZ4;
+				var stored = compressed;
+				if (storedLen >= raw.length - raw.length / 16) {
+					// 压缩率太低时直接存储，读取时可以省去解压
+					storedLen = raw.length;
+					codec = WZPReader.CODEC_NONE;
+					stored = raw;
+				}
+				if (align(pos + storedLen) > WZPReader.MAX_FILE_SIZE)
+					throw new IOException(wzpFn + " would be larger than 2GB, texture " + no + " does not fit");
+				write(out, ByteBuffer.wrap(stored, 0, storedLen), pos);
+				index.putLong(entry, pos);
+				index.putInt(entry + 8, storedLen);
+				index.putInt(entry + 12, raw.length);
+				index.putShort(entry + 16, frame.getShort(frame.position() + 4));
+				index.putShort(entry + 18, frame.getShort(frame.position() + 6));
+				index.putShort(entry + 20, frame.getShort(frame.position() + 8));
+				index.putShort(entry + 22, frame.getShort(frame.position() + 10));
+				index.put(entry + 24, format);
+				index.put(entry + 25, codec);
+				index.put(entry + 26, colorBit);
+				pos = align(pos + storedLen);
+			}
+			var header = ByteBuffer.allocate(WZPReader.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(0, WZPReader.MAGIC);
+			header.putInt(4, WZPReader.VERSION);
+			header.putInt(8, imageCount);
+			header.putLong(16, WZPReader.HEADER_SIZE);
+			WZPReader.putSourceFingerprint(header, fingerprint);
+			write(out, header, 0);
+			write(out, index.clear(), WZPReader.HEADER_SIZE);
+			out.truncate(pos);
+			if (out.size() < pos)
+				write(out, ByteBuffer.allocate(1), pos - 1);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		SDK.replaceFile(tmp, target);
+		return Files.size(target);
+	}
+
+	private static long align(long pos) {
+		return (pos + WZPReader.ALIGN - 1) & -WZPReader.ALIGN;
+	}
+
+	private static void write(FileChannel out, ByteBuffer data, long pos) throws IOException {
+		while (data.hasRemaining()) {
+			pos += out.write(data, pos);
+		}
+	}
+}
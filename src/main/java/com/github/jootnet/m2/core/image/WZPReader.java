@@ -0,0 +1,290 @@
+package com.github.jootnet.m2.core.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.github.jootnet.m2.core.SDK;
+
+/**
+ * WZP文件随机读取类
+ * <br>
+ * wzp是由{@link WZPConverter}从wzx/wzl转换而来的单文件图集，读取时不需要zlib解压和去除行填充
+ * <br>
+ * 文件前64字节是头部：0x00处为标识"WZP1"，0x04处为版本，0x08处为纹理总数，0x10处为long型的索引偏移，
+ * 0x18、0x20、0x28、0x30处为转换时源wzx长度、wzx修改时间、wzl长度、wzl修改时间（long型，版本2起）
+ * <br>  索引由每张纹理一个32字节的条目组成：long型数据偏移（0表示空纹理）、int型存储长度、int型原始长度、
+ * 宽度、高度、X偏移、Y偏移（各为short）、1字节像素格式、1字节压缩方式、1字节wzl中的色彩位数标记、1字节保留
+ * <br>  纹理数据按64字节对齐，像素为从上到下、无填充的行，可能使用LZ4块格式压缩
+ * <br>  文件不超过2GB，偏移虽以long记录，但都在int范围内
+ * <br>
+ * {@link #get(int)}是同步调用，可以被多个线程同时调用
+ */
+public final class WZPReader implements FrameSource {
+	/** 文件标识 */
+	static final int MAGIC = 0x31505a57; // "WZP1"
+	/** 当前版本 */
+	static final int VERSION = 2;
+	/** 头部中源文件指纹的偏移 */
+	private static final int SOURCE_OFFSET = 0x18;
+	/** 头部字节数 */
+	static final int HEADER_SIZE = 64;
+	/** 索引条目字节数 */
+	static final int ENTRY_SIZE = 32;
+	/** 纹理数据对齐字节数 */
+	static final int ALIGN = 64;
+	/** 文件大小上限，整个文件映射读取 */
+	static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+	/** 像素格式：8位调色板索引 */
+	static final byte FORMAT_INDEXED8 = 1;
+	/** 像素格式：16位小端RGB565 */
+	static final byte FORMAT_RGB565 = 2;
+	/** 像素格式：已转换的RGBA */
+	static final byte FORMAT_RGBA = 3;
+	/** 压缩方式：不压缩 */
+	static final byte CODEC_NONE = 0;
+	/** 压缩方式：LZ4块格式 */
+	static final byte CODEC_LZ4 = 1;
+
+	/** 库内图片总数 */
+	private final int imageCount;
+	/** 索引区域 */
+	private final ByteBuffer index;
+	/** 文件映射区域 */
+	private volatile MappedByteBuffer wzp;
+	/** 转换时源文件的长度和修改时间，版本1的文件为null */
+	private final long[] source;
+
+	/**
+	 * 映射wzp文件
+	 *
+	 * @param wzpFn wzp文件路径
+	 * @throws IOException 文件无法打开、映射或格式不正确
+	 */
+	public WZPReader(String wzpFn) throws IOException {
+		try (var channel = FileChannel.open(Paths.get(wzpFn), StandardOpenOption.READ)) {
+			if (channel.size() > MAX_FILE_SIZE)
+				throw new IOException(wzpFn + " is larger than 2GB");
+			wzp = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		var header = wzp.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC)
+			throw new IOException(wzpFn + " is not a wzp file");
+		var version = header.getInt(4);
+		if (version < 1 || version > VERSION)
+			throw new IOException(wzpFn + " unsupported version " + version);
+		source = version < 2 ? null : new long[] { header.getLong(SOURCE_OFFSET), header.getLong(SOURCE_OFFSET + 8),
+				header.getLong(SOURCE_OFFSET + 16), header.getLong(SOURCE_OFFSET + 24) };
+		imageCount = header.getInt(8);
+		var indexOffset = header.getLong(16);
+		if (imageCount < 0 || indexOffset < 0 || indexOffset + (long) imageCount * ENTRY_SIZE > header.limit())
+			throw new IOException(wzpFn + " index truncated");
+		header.position((int) indexOffset).limit((int) indexOffset + imageCount * ENTRY_SIZE);
+		index = header.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * 判断wzp是否由当前的wzx/wzl转换而来
+	 * <br>
+	 * 比较转换时记录的源文件长度和修改时间；版本1的文件没有记录，视为不一致
+	 *
+	 * @param wzxFn wzx文件路径
+	 * @param wzlFn wzl文件路径
+	 * @return true表示源文件没有变化
+	 * @throws IOException 源文件无法读取
+	 */
+	public boolean isCurrent(String wzxFn, String wzlFn) throws IOException {
+		return source != null && Arrays.equals(source, sourceFingerprint(wzxFn, wzlFn));
+	}
+
+	/** 源文件指纹：wzx长度、wzx修改时间、wzl长度、wzl修改时间 */
+	static long[] sourceFingerprint(String wzxFn, String wzlFn) throws IOException {
+		var wzx = Paths.get(wzxFn);
+		var wzl = Paths.get(wzlFn);
+		return new long[] { Files.size(wzx), Files.getLastModifiedTime(wzx).toMillis(),
+				Files.size(wzl), Files.getLastModifiedTime(wzl).toMillis() };
+	}
+
+	/** 写入头部中的源文件指纹 */
+	static void putSourceFingerprint(ByteBuffer header, long[] fingerprint) {
+		for (var i = 0; i < fingerprint.length; ++i) {
+			header.putLong(SOURCE_OFFSET + i * 8, fingerprint[i]);
+		}
+	}
+
+	@Override
+	public int getImageCount() {
+		return imageCount;
+	}
+
+	@Override
+	public boolean isEmpty(int no) {
+		return index.getLong(no * ENTRY_SIZE) == 0;
+	}
+
+	/**
+	 * 获取纹理在wzp文件中存储的字节数
+	 *
+	 * @param no 纹理编号，从0开始
+	 * @return 字节数，空纹理返回0
+	 */
+	@Override
+	public int dataLength(int no) {
+		return index.getInt(no * ENTRY_SIZE + 8);
+	}
+
+	/**
+	 * 读取所有纹理的元数据
+	 * <br>
+	 * 只读取索引，不访问纹理数据
+	 *
+	 * @return 元数据，压缩标志和数据长度为wzp中的存储方式
+	 */
+	@Override
+	public TextureMeta meta() {
+		var meta = new TextureMeta(imageCount);
+		for (var no = 0; no < imageCount; ++no) {
+			if (isEmpty(no)) {
+				meta.setEmpty(no);
+				continue;
+			}
+			var entry = no * ENTRY_SIZE;
+			meta.set(no, index.get(entry + 26), index.get(entry + 25) != CODEC_NONE,
+					index.getShort(entry + 16), index.getShort(entry + 18),
+					index.getShort(entry + 20), index.getShort(entry + 22), dataLength(no));
+		}
+		return meta;
+	}
+
+	/**
+	 * 解码特定编号纹理
+	 *
+	 * @param no 纹理编号，从0开始
+	 * @return 纹理对象
+	 * @throws IOException 纹理数据损坏或读取器已关闭
+	 */
+	@Override
+	public Texture get(int no) throws IOException {
+		return get(no, TextureDecoder.RGBA);
+	}
+
+	/**
+	 * 解码特定编号纹理
+	 *
+	 * @param no      纹理编号，从0开始
+	 * @param indexed 8位纹理是否保留调色板索引，已转换为RGBA的纹理不受影响
+	 * @return 纹理对象
+	 * @throws IOException 纹理数据损坏或读取器已关闭
+	 */
+	@Override
+	public Texture get(int no, boolean indexed) throws IOException {
+		return get(no, indexed ? TextureDecoder.INDEXED : TextureDecoder.RGBA);
+	}
+
+	Texture get(int no, TextureDecoder decoder) throws IOException {
+		if (isEmpty(no)) return Texture.EMPTY;
+		var tex = decode(no, frame(no), decoder);
+		if (tex == null)
+			throw new IOException("texture " + no + " truncated");
+		return tex;
+	}
+
+	/**
+	 * 获取纹理存储数据所在的映射区域
+	 * <br>
+	 * 返回的缓冲区为独立视图，position和limit为存储数据的范围
+	 */
+	@Override
+	public ByteBuffer frame(int no) throws IOException {
+		var buffer = wzp;
+		if (buffer == null)
+			throw new IOException("reader closed");
+		var offset = index.getLong(no * ENTRY_SIZE);
+		var storedLen = dataLength(no);
+		if (offset < 0 || offset + storedLen > buffer.limit())
+			throw new IOException("texture " + no + " out of file");
+		var view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		view.limit((int) offset + storedLen).position((int) offset);
+		return view;
+	}
+
+	@Override
+	public Texture decode(int no, ByteBuffer frame, TextureDecoder decoder) throws IOException {
+		var entry = no * ENTRY_SIZE;
+		var rawLen = index.getInt(entry + 12);
+		var width = index.getShort(entry + 16);
+		var height = index.getShort(entry + 18);
+		var offsetX = index.getShort(entry + 20);
+		var offsetY = index.getShort(entry + 22);
+		var format = index.get(entry + 24);
+		var codec = index.get(entry + 25);
+		if (frame.remaining() < dataLength(no))
+			return null;
+		var pixels = frame;
+		if (codec == CODEC_LZ4) {
+			pixels = decompress(frame, rawLen);
+		} else if (codec != CODEC_NONE) {
+			throw new IOException("texture " + no + " unknown codec " + codec);
+		}
+		var count = width * height;
+		if (format == FORMAT_INDEXED8 && decoder.indexed) {
+			var indices = new byte[count];
+			pixels.duplicate().get(indices);
+			return new Texture(false, width, height, offsetX, offsetY, indices, SDK.palletes);
+		}
+		var pool = decoder.directPool;
+		var dst = pool != null ? pool.acquire(count * 4) : ByteBuffer.wrap(new byte[count * 4]);
+		switch (format) {
+		case FORMAT_INDEXED8:
+			var indices = new byte[count];
+			pixels.duplicate().get(indices);
+			ColorConverter.expand(indices, count, ColorConverter.view(dst));
+			break;
+		case FORMAT_RGB565:
+			ColorConverter.convert565(pixels, count, ColorConverter.view(dst));
+			break;
+		case FORMAT_RGBA:
+			dst.duplicate().put(pixels.duplicate().limit(pixels.position() + count * 4));
+			break;
+		default:
+			if (pool != null) pool.release(dst);
+			throw new IOException("texture " + no + " unknown format " + format);
+		}
+		if (pool != null)
+			return new Texture(width, height, offsetX, offsetY, dst, pool);
+		return new Texture(false, width, height, offsetX, offsetY, dst.array());
+	}
+
+	@Override
+	public long hash(int no, ByteBuffer frame, long seed) {
+		// 存储数据不含头部，先计算索引条目中尺寸、偏移、格式和编码的哈希
+		var entry = no * ENTRY_SIZE;
+		seed = XXHash64.hash(index.duplicate().limit(entry + 26).position(entry + 12), seed);
+		return XXHash64.hash(frame, seed);
+	}
+
+	/** 线程内复用的压缩数据和解压缓冲区 */
+	private static final ThreadLocal<byte[][]> scratch = ThreadLocal.withInitial(() -> new byte[][] { new byte[64 * 1024], new byte[64 * 1024] });
+
+	/** 解压到线程内复用的缓冲区，返回的缓冲区只在下一次解压前有效 */
+	private static ByteBuffer decompress(ByteBuffer frame, int rawLen) throws IOException {
+		var bufs = scratch.get();
+		var storedLen = frame.remaining();
+		if (bufs[0].length < storedLen) bufs[0] = new byte[Integer.highestOneBit(storedLen - 1) << 1];
+		if (bufs[1].length < rawLen) bufs[1] = new byte[Integer.highestOneBit(rawLen - 1) << 1];
+		frame.duplicate().get(bufs[0], 0, storedLen);
+		LZ4.decompress(bufs[0], 0, storedLen, bufs[1], rawLen);
+		return ByteBuffer.wrap(bufs[1], 0, rawLen).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Override
+	public void close() {
+		wzp = null;
+	}
+}
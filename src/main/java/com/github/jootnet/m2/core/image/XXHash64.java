@@ -0,0 +1,84 @@
+package com.github.jootnet.m2.core.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * xxHash64哈希
+ * <br>
+ * 用于快速比较纹理数据是否相同，每字节约0.1纳秒，远快于解压
+ */
+final class XXHash64 {
+	private static final long P1 = 0x9E3779B185EBCA87L;
+	private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long P3 = 0x165667B19E3779F9L;
+	private static final long P4 = 0x85EBCA77C2B2AE63L;
+	private static final long P5 = 0x27D4EB2F165667C5L;
+
+	private XXHash64() {}
+
+	/**
+	 * 计算缓冲区position到limit之间数据的哈希，position不变
+	 *
+	 * @param buffer 数据
+	 * @param seed   种子
+	 * @return 哈希值
+	 */
+	static long hash(ByteBuffer buffer, long seed) {
+		var buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		var pos = buf.position();
+		var end = buf.limit();
+		var len = end - pos;
+		long h;
+		if (len >= 32) {
+			var v1 = seed + P1 + P2;
+			var v2 = seed + P2;
+			var v3 = seed;
+			var v4 = seed - P1;
+			for (var limit = end - 32; pos <= limit; pos += 32) {
+				v1 = round(v1, buf.getLong(pos));
+				v2 = round(v2, buf.getLong(pos + 8));
+				v3 = round(v3, buf.getLong(pos + 16));
+				v4 = round(v4, buf.getLong(pos + 24));
+			}
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = merge(h, v1);
+			h = merge(h, v2);
+			h = merge(h, v3);
+			h = merge(h, v4);
+		} else {
+			h = seed + P5;
+		}
+		h += len;
+		for (; pos + 8 <= end; pos += 8) {
+			h ^= round(0, buf.getLong(pos));
+			h = Long.rotateLeft(h, 27) * P1 + P4;
+		}
+		if (pos + 4 <= end) {
+			h ^= (buf.getInt(pos) & 0xFFFFFFFFL) * P1;
+			h = Long.rotateLeft(h, 23) * P2 + P3;
+			pos += 4;
+		}
+		for (; pos < end; ++pos) {
+			h ^= (buf.get(pos) & 0xFF) * P5;
+			h = Long.rotateLeft(h, 11) * P1;
+		}
+		h ^= h >>> 33;
+		h *= P2;
+		h ^= h >>> 29;
+		h *= P3;
+		h ^= h >>> 32;
+		return h;
+	}
+
+	private static long round(long acc, long input) {
+		acc += input * P2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * P1;
+	}
+
+	private static long merge(long h, long v) {
+		h ^= round(0, v);
+		return h * P1 + P4;
+	}
+}